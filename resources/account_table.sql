@@ -6,7 +6,10 @@ CREATE TABLE `account` (
   `id` int(11) NOT NULL AUTO_INCREMENT,
   `user_id` bigint(20) NOT NULL COMMENT 'User account is associated with',
   `name` varchar(45) NOT NULL COMMENT 'account name',
-  `balance` double NOT NULL DEFAULT '0' COMMENT 'balance of the account',
+  `balance` decimal(19,2) NOT NULL DEFAULT '0.00' COMMENT 'balance of the account',
   `last_update` datetime NOT NULL COMMENT 'Timestamp of last update. Provided by the caller',
-  PRIMARY KEY (`id`)
+  `version` bigint(20) NOT NULL DEFAULT '0' COMMENT 'Incremented by every update, for optimistic concurrency',
+  PRIMARY KEY (`id`),
+  KEY `idx_account_user_id` (`user_id`),
+  KEY `idx_account_last_update` (`last_update`)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
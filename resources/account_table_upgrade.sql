@@ -0,0 +1,13 @@
+USE `atm`;
+
+delimiter $$
+
+-- Brings an account table created before these columns and indexes up to
+-- account_table.sql: balances are exact cents, transfer compares and bumps
+-- version, getAccountsByUserId looks up by user_id and getAccountsModifiedSince
+-- polls last_update
+ALTER TABLE `account`
+  MODIFY `balance` decimal(19,2) NOT NULL DEFAULT '0.00' COMMENT 'balance of the account',
+  ADD COLUMN `version` bigint(20) NOT NULL DEFAULT '0' COMMENT 'Incremented by every update, for optimistic concurrency' AFTER `last_update`,
+  ADD KEY `idx_account_user_id` (`user_id`),
+  ADD KEY `idx_account_last_update` (`last_update`);
@@ -0,0 +1,9 @@
+USE `atm`;
+
+delimiter $$
+
+CREATE TABLE `id_block` (
+  `name` varchar(32) NOT NULL COMMENT 'Sequence name, e.g. user',
+  `next_value` bigint(20) NOT NULL COMMENT 'First id not yet handed out in a block',
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1;
@@ -0,0 +1,9 @@
+USE `atm`;
+
+delimiter $$
+
+CREATE TABLE `journal_checkpoint` (
+  `name` varchar(64) NOT NULL COMMENT 'Account journal name, one per ATM node',
+  `last_sequence` bigint(20) NOT NULL COMMENT 'Last journal record applied to the account table',
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1;
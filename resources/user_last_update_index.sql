@@ -0,0 +1,9 @@
+USE `atm`;
+
+delimiter $$
+
+-- saveUser stamps last_update with the full time, and getUsersModifiedSince
+-- polls it, so it needs to be a datetime with an index
+ALTER TABLE `user`
+  MODIFY `last_update` datetime NOT NULL COMMENT 'Timestamp of last update. Provided by the caller',
+  ADD KEY `idx_user_last_update` (`last_update`);
@@ -0,0 +1,8 @@
+USE `atm`;
+
+delimiter $$
+
+-- findUsersByNamePrefix seeks on these with LIKE 'prefix%'
+ALTER TABLE `user`
+  ADD KEY `idx_user_last_first` (`last_name`, `first_name`),
+  ADD KEY `idx_user_first_last` (`first_name`, `last_name`);
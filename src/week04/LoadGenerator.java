@@ -0,0 +1,366 @@
+package week04;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import week04.app.User;
+import week04.data.AtmDataException;
+import week04.data.DataAccess;
+import week04.util.LatencyHistogram;
+
+/**
+ * Runs simulated ATM sessions against DataAccess at the same time and measures
+ * throughput and latency. Each session is a thread that repeatedly picks a call
+ * from a weighted mix, times it, then waits a random think time averaging the
+ * configured value. Think time is not part of the measured latency.
+ *
+ * Sessions only touch users they created, and remove them when the run ends.
+ */
+public class LoadGenerator
+{
+	/** Calls a session makes */
+	public enum Operation
+	{
+		LOOKUP, SAVE, LIST, REMOVE
+	}
+
+	private static final int LIST_PAGE = 50;
+	private static final int MAX_USERS_PER_SESSION = 5;
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param dataAccess connected data access to load
+	 */
+	public LoadGenerator(DataAccess dataAccess)
+	{
+		m_dataAccess = dataAccess;
+	}
+
+	/**
+	 * @param sessions number of concurrent sessions
+	 */
+	public void setSessions(int sessions)
+	{
+		if( sessions < 1 )
+		{
+			throw new IllegalArgumentException("sessions must be at least 1");
+		}
+		m_sessions = sessions;
+	}
+
+	/**
+	 * @param durationMillis how long the sessions run
+	 */
+	public void setDurationMillis(long durationMillis)
+	{
+		m_durationMillis = durationMillis;
+	}
+
+	/**
+	 * @param thinkTimeMillis average pause between a session's calls, 0 for none
+	 */
+	public void setThinkTimeMillis(long thinkTimeMillis)
+	{
+		m_thinkTimeMillis = thinkTimeMillis;
+	}
+
+	/**
+	 * Relative weights of the calls, e.g. 70, 15, 10, 5
+	 *
+	 * @param lookup weight of getUserById
+	 * @param save weight of saveUser
+	 * @param list weight of a getUsers page
+	 * @param remove weight of removeUser
+	 */
+	public void setMix(int lookup, int save, int list, int remove)
+	{
+		if( lookup < 0 || save < 0 || list < 0 || remove < 0 || lookup + save + list + remove == 0 )
+		{
+			throw new IllegalArgumentException("mix weights must be positive");
+		}
+		m_mix = new int[] { lookup, save, list, remove };
+	}
+
+	/**
+	 * Run the sessions for the configured duration
+	 *
+	 * @return throughput and latencies of the run
+	 * @throws InterruptedException interrupted while waiting for the sessions
+	 */
+	public Report run() throws InterruptedException
+	{
+		final long deadline = System.currentTimeMillis() + m_durationMillis;
+		final Session[] sessions = new Session[m_sessions];
+		Thread[] threads = new Thread[m_sessions];
+		for(int i = 0; i < m_sessions; i++)
+		{
+			sessions[i] = new Session(i, deadline);
+			threads[i] = new Thread(sessions[i], "atm-load-" + i);
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Report report = new Report(m_sessions, elapsed);
+		for(Session session : sessions)
+		{
+			report.add(session);
+		}
+		return report;
+	}
+
+	/** One simulated ATM session, run on its own thread */
+	private class Session implements Runnable
+	{
+		Session(int number, long deadline)
+		{
+			m_number = number;
+			m_deadline = deadline;
+			m_random = new Random(number);
+			for(Operation operation : Operation.values())
+			{
+				m_latencies.put(operation, new LatencyHistogram());
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				m_own.add(m_dataAccess.saveUser(new User("Load" + m_number, "Session" + m_number)));
+			}
+			catch(AtmDataException ex)
+			{
+				m_errors++;
+				return;
+			}
+
+			while( System.currentTimeMillis() < m_deadline )
+			{
+				Operation operation = pick();
+				long start = System.nanoTime();
+				try
+				{
+					execute(operation);
+				}
+				catch(AtmDataException ex)
+				{
+					m_errors++;
+				}
+				m_latencies.get(operation).record(System.nanoTime() - start);
+
+				if( !think() )
+				{
+					break;
+				}
+			}
+
+			for(User user : m_own)
+			{
+				try
+				{
+					m_dataAccess.removeUser(user);
+				}
+				catch(AtmDataException ex)
+				{
+					m_errors++;
+				}
+			}
+		}
+
+		private Operation pick()
+		{
+			int total = 0;
+			for(int weight : m_mix)
+			{
+				total += weight;
+			}
+			int roll = m_random.nextInt(total);
+			for(int i = 0; i < m_mix.length; i++)
+			{
+				roll -= m_mix[i];
+				if( roll < 0 )
+				{
+					return Operation.values()[i];
+				}
+			}
+			return Operation.LOOKUP;
+		}
+
+		private void execute(Operation operation) throws AtmDataException
+		{
+			User user = m_own.get(m_random.nextInt(m_own.size()));
+			switch( operation )
+			{
+				case LOOKUP:
+					m_dataAccess.getUserById(user.getUserId());
+					break;
+				case SAVE:
+					if( m_own.size() < MAX_USERS_PER_SESSION )
+					{
+						m_own.add(m_dataAccess.saveUser(new User("Load" + m_number, "Session" + m_own.size())));
+					}
+					else
+					{
+						m_dataAccess.saveUser(new User(user.getUserId(), user.getFirstName(),
+								"Session" + m_random.nextInt(1000)));
+					}
+					break;
+				case LIST:
+					m_dataAccess.getUsers(user.getUserId() - 1, LIST_PAGE);
+					break;
+				case REMOVE:
+					// keep one user so the other calls always have a target; a user leaves
+					// m_own only once it is gone, so a failed call leaves it for the cleanup
+					if( m_own.size() > 1 )
+					{
+						m_dataAccess.removeUser(m_own.get(m_own.size() - 1));
+						m_own.remove(m_own.size() - 1);
+					}
+					else
+					{
+						m_own.add(m_dataAccess.saveUser(new User(user.getFirstName(), user.getLastName())));
+						m_dataAccess.removeUser(user);
+						m_own.remove(0);
+					}
+					break;
+			}
+		}
+
+		/** @return false if interrupted */
+		private boolean think()
+		{
+			if( m_thinkTimeMillis <= 0 )
+			{
+				return true;
+			}
+			try
+			{
+				Thread.sleep((long) (m_random.nextDouble() * 2 * m_thinkTimeMillis));
+				return true;
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		private final int m_number;
+		private final long m_deadline;
+		private final Random m_random;
+		private final List<User> m_own = new ArrayList<User>();
+		private final Map<Operation, LatencyHistogram> m_latencies =
+				new EnumMap<Operation, LatencyHistogram>(Operation.class);
+		private long m_errors = 0;
+	}
+
+	/**
+	 * Results of a run: latencies in nanoseconds per operation and overall
+	 */
+	public static class Report
+	{
+		Report(int sessions, long elapsedNanos)
+		{
+			m_sessions = sessions;
+			m_elapsedNanos = elapsedNanos;
+			for(Operation operation : Operation.values())
+			{
+				m_latencies.put(operation, new LatencyHistogram());
+			}
+		}
+
+		void add(Session session)
+		{
+			for(Operation operation : Operation.values())
+			{
+				LatencyHistogram latencies = session.m_latencies.get(operation);
+				m_latencies.get(operation).add(latencies);
+				m_overall.add(latencies);
+			}
+			m_errors += session.m_errors;
+		}
+
+		/**
+		 * @return completed calls per second over all sessions
+		 */
+		public double getThroughput()
+		{
+			return m_overall.getCount() / (m_elapsedNanos / 1e9);
+		}
+
+		/**
+		 * @param operation call to report
+		 * @return latencies of that call
+		 */
+		public LatencyHistogram getLatencies(Operation operation)
+		{
+			return m_latencies.get(operation);
+		}
+
+		/**
+		 * @return latencies of every call
+		 */
+		public LatencyHistogram getOverallLatencies()
+		{
+			return m_overall;
+		}
+
+		/**
+		 * @return calls that threw
+		 */
+		public long getErrors()
+		{
+			return m_errors;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder buf = new StringBuilder();
+			buf.append(String.format("%d sessions, %.1f s, %d calls, %.1f calls/sec, %d errors%n",
+					m_sessions, m_elapsedNanos / 1e9, m_overall.getCount(), getThroughput(), m_errors));
+			buf.append(String.format("%-8s %10s %10s %10s %10s %10s%n",
+					"call", "count", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+			for(Operation operation : Operation.values())
+			{
+				appendRow(buf, operation.name(), m_latencies.get(operation));
+			}
+			appendRow(buf, "ALL", m_overall);
+			return buf.toString();
+		}
+
+		private static void appendRow(StringBuilder buf, String name, LatencyHistogram latencies)
+		{
+			buf.append(String.format("%-8s %10d %10.3f %10.3f %10.3f %10.3f%n", name, latencies.getCount(),
+					latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+					latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMax() / 1e6));
+		}
+
+		private final int m_sessions;
+		private final long m_elapsedNanos;
+		private final Map<Operation, LatencyHistogram> m_latencies =
+				new EnumMap<Operation, LatencyHistogram>(Operation.class);
+		private final LatencyHistogram m_overall = new LatencyHistogram();
+		private long m_errors = 0;
+	}
+
+	private final DataAccess m_dataAccess;
+	private int m_sessions = 16;
+	private long m_durationMillis = 30000;
+	private long m_thinkTimeMillis = 10;
+	private int[] m_mix = { 70, 15, 10, 5 };
+}
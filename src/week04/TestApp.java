@@ -63,6 +63,8 @@ public class TestApp extends AbstractTestCase
 		}
 		
 		trace(" Testing valid user");
+		week04.app.SystemIdGenerator.configure(0, week04.app.SystemIdGenerator.DEFAULT_BLOCK_SIZE,
+				new week04.app.SystemIdGenerator.LocalBlockSource());
 		long newId = week04.app.SystemIdGenerator.getInstance().getNextId();
 		user.setUserId(newId);
 		
@@ -3,18 +3,50 @@ package week04;
 import java.io.IOException;
 
 import test.TestEngine;
+import week04.app.AccountColumnStoreTestCase;
 import week04.app.AccountTestCase;
+import week04.app.SystemIdGeneratorTestCase;
 import week04.app.UserTestCase;
+import week04.data.AccountJournalTestCase;
+import week04.data.BalanceUpdateCoalescerTestCase;
+import week04.data.ConnectionPoolTestCase;
+import week04.data.DataAccess;
+import week04.data.DataAccessConcurrencyTestCase;
 import week04.data.DataAccessTestCase;
+import week04.data.OffHeapStoreTestCase;
+import week04.data.RowMapperTestCase;
+import week04.data.TableMirrorTestCase;
+import week04.data.TransferContentionTestCase;
+import week04.data.UserCacheTestCase;
+import week04.data.UserNameIndexTestCase;
+import week04.util.AsyncHtmlLogHandlerTestCase;
 import week04.util.AtmLogger;
+import week04.util.BinaryLogTestCase;
+import week04.util.ConcurrentLongObjectMapTestCase;
+import week04.util.LatencyHistogramTestCase;
+import week04.util.LongLongHashMapTestCase;
 
 /**
  * File: TestHarness.java
+ *
+ * Runs the functional test cases. With -load it instead runs simulated ATM
+ * sessions against DataAccess and prints throughput and latency percentiles:
+ *
+ *   TestHarness -load [sessions=16] [duration=30] [think=10] [mix=70,15,10,5] [pool=10]
+ *
+ * duration is in seconds, think in milliseconds, and mix weighs lookup, save,
+ * list and remove calls.
  */
 class TestHarness
 {
     public static void main(String[] args)
     {
+    	if( args.length > 0 && args[0].equals("-load") )
+    	{
+    		runLoad(args);
+    		return;
+    	}
+
     	trace("Starting test...");
 
 		trace(" -- setup test data");
@@ -31,7 +63,24 @@ class TestHarness
     	TestEngine engine = new TestEngine();
     	engine.addTest(new UserTestCase());
     	engine.addTest(new AccountTestCase());
+    	engine.addTest(new AccountColumnStoreTestCase());
+    	engine.addTest(new SystemIdGeneratorTestCase());
+    	engine.addTest(new ConnectionPoolTestCase());
     	engine.addTest(new DataAccessTestCase());
+    	engine.addTest(new DataAccessConcurrencyTestCase());
+    	engine.addTest(new TransferContentionTestCase());
+    	engine.addTest(new UserCacheTestCase());
+    	engine.addTest(new TableMirrorTestCase());
+    	engine.addTest(new UserNameIndexTestCase());
+    	engine.addTest(new RowMapperTestCase());
+    	engine.addTest(new OffHeapStoreTestCase());
+    	engine.addTest(new BalanceUpdateCoalescerTestCase());
+    	engine.addTest(new AccountJournalTestCase());
+    	engine.addTest(new ConcurrentLongObjectMapTestCase());
+    	engine.addTest(new LatencyHistogramTestCase());
+    	engine.addTest(new LongLongHashMapTestCase());
+    	engine.addTest(new AsyncHtmlLogHandlerTestCase());
+    	engine.addTest(new BinaryLogTestCase());
     	engine.addTest(new TestLogging());
 
     	engine.runTests();
@@ -39,6 +88,72 @@ class TestHarness
     	trace("Completed test");
     }
 
+	static private void runLoad(String[] args)
+	{
+		int sessions = 16;
+		long seconds = 30;
+		long think = 10;
+		int[] mix = { 70, 15, 10, 5 };
+		int pool = DataAccess.getPoolSize();
+		try
+		{
+			for(int i = 1; i < args.length; i++)
+			{
+				String[] option = args[i].split("=", 2);
+				String value = option.length > 1 ? option[1] : "";
+				if( option[0].equals("sessions") )
+					sessions = Integer.parseInt(value);
+				else if( option[0].equals("duration") )
+					seconds = Long.parseLong(value);
+				else if( option[0].equals("think") )
+					think = Long.parseLong(value);
+				else if( option[0].equals("pool") )
+					pool = Integer.parseInt(value);
+				else if( option[0].equals("mix") )
+				{
+					String[] weights = value.split(",");
+					for(int w = 0; w < mix.length; w++)
+						mix[w] = Integer.parseInt(weights[w].trim());
+				}
+				else
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		catch(RuntimeException ex)
+		{
+			trace("Bad load option: " + ex.getMessage());
+			trace("Usage: TestHarness -load [sessions=N] [duration=SECONDS] [think=MILLIS] "
+					+ "[mix=LOOKUP,SAVE,LIST,REMOVE] [pool=N]");
+			return;
+		}
+
+		trace(String.format("Load test: %d sessions, %d s, think %d ms, mix %d/%d/%d/%d, pool %d",
+				sessions, seconds, think, mix[0], mix[1], mix[2], mix[3], pool));
+		DataAccess.configurePool(pool, 5000, 5 * 60 * 1000);
+		DataAccess da = DataAccess.getInstance();
+		try
+		{
+			da.connect();
+			LoadGenerator generator = new LoadGenerator(da);
+			generator.setSessions(sessions);
+			generator.setDurationMillis(seconds * 1000);
+			generator.setThinkTimeMillis(think);
+			generator.setMix(mix[0], mix[1], mix[2], mix[3]);
+
+			LoadGenerator.Report report = generator.run();
+			trace(report.toString());
+			trace("Pool: " + da.getPoolStats());
+		}
+		catch(Exception ex)
+		{
+			trace("Load test failed: " + ex.getMessage());
+		}
+		finally
+		{
+			da.close();
+		}
+	}
+
 	static private void trace(String msg)
 	{
 		System.out.println(msg);
@@ -1,5 +1,7 @@
 package week04.app;
 
+import java.util.function.LongFunction;
+
 /**
  * An account in the bank system.
  * 
@@ -28,7 +30,24 @@ public class Account
 		m_accountId = id;
 		m_user = user;
 		m_accountName = name;
-		m_balance = balance;
+		m_balance = Money.fromDouble(balance);
+	}
+	
+	/**
+	 * Account whose owner is loaded on the first call to getUser().
+	 * Used by the data layer when the owner may never be needed.
+	 * 
+	 * @param id account id
+	 * @param userId id of the owner
+	 * @param userLoader loads the owner by id, called at most once
+	 * @param name account name
+	 * @param balance Account balance
+	 */
+	public Account(long id, long userId, LongFunction<User> userLoader, String name, double balance)
+	{
+		this(id, null, name, balance);
+		m_userId = userId;
+		m_userLoader = userLoader;
 	}
 	
 	/**
@@ -63,14 +82,52 @@ public class Account
 	}
 	
 	/**
-	 * Get the user reference
+	 * Get the user reference, loading it first if it was left for later
 	 * @return
 	 */
 	public User getUser()
 	{
+		if( m_userLoader != null )
+		{
+			m_user = m_userLoader.apply(m_userId);
+			m_userLoader = null;
+		}
 		return m_user;
 	}	
 	
+	/**
+	 * Get the owner's id without loading the owner
+	 * @return the user id
+	 */
+	public long getUserId()
+	{
+		return m_user != null ? m_user.getUserId() : m_userId;
+	}
+	
+	/**
+	 * @return true if getUser() will not have to load the owner
+	 */
+	public boolean isUserLoaded()
+	{
+		return m_userLoader == null;
+	}
+	
+	/**
+	 * Copy the account under another id. An owner that is not loaded yet stays
+	 * unloaded in the copy.
+	 * 
+	 * @param id account id of the copy
+	 * @return the copy
+	 */
+	public Account copyWithId(long id)
+	{
+		Account copy = m_userLoader != null
+				? new Account(id, m_userId, m_userLoader, m_accountName, 0.0)
+				: new Account(id, m_user, m_accountName, 0.0);
+		copy.m_balance = m_balance;
+		return copy;
+	}
+	
 	/**
 	 * 
 	 * @param user Assign the user to the account
@@ -78,6 +135,7 @@ public class Account
 	public void setUser(User user)
 	{
 		this.m_user = user;
+		this.m_userLoader = null;
 	}
 		
 	/**
@@ -94,18 +152,63 @@ public class Account
 	 */
 	public double getBalance()
 	{
-		return m_balance;
+		return Money.toDouble(m_balance);
 	}
 	
 	/**
 	 * Set the balance for this account
 	 * 
-	 * @param balance value to assign
+	 * @param balance value to assign, rounded to the cent
 	 */
 	public void setBalance(double balance)
+	{
+		m_balance = Money.fromDouble(balance);
+	}
+	
+	/**
+	 * Return account balance in minor units (cents). See Money.
+	 * @return Current account balance
+	 */
+	public long getBalanceMinor()
+	{
+		return m_balance;
+	}
+	
+	/**
+	 * Set the balance for this account in minor units (cents)
+	 * 
+	 * @param balance value to assign
+	 */
+	public void setBalanceMinor(long balance)
 	{
 		m_balance = balance;
 	}
+	
+	/**
+	 * Add to the balance
+	 * 
+	 * @param amount amount in minor units, may be negative
+	 * @return the new balance in minor units
+	 * @throws ArithmeticException if the balance would overflow
+	 */
+	public long addToBalance(long amount)
+	{
+		m_balance = Money.add(m_balance, amount);
+		return m_balance;
+	}
+	
+	/**
+	 * Subtract from the balance
+	 * 
+	 * @param amount amount in minor units, may be negative
+	 * @return the new balance in minor units
+	 * @throws ArithmeticException if the balance would overflow
+	 */
+	public long subtractFromBalance(long amount)
+	{
+		m_balance = Money.subtract(m_balance, amount);
+		return m_balance;
+	}
 
 	/**
 	 * @param name New account name to set
@@ -133,7 +236,8 @@ public class Account
 			// valid User object, check the contents
 			final Account otherUser = (Account) obj;
 			if( !this.m_accountName.equals(otherUser.m_accountName) ||
-				!this.m_user.equals(otherUser.m_user) ||
+				this.getUserId() != otherUser.getUserId() ||
+				!this.loadedOwnersMatch(otherUser) ||
 				!(this.m_balance == otherUser.m_balance) ||
 				!(this.m_accountId == otherUser.m_accountId))
 			{
@@ -144,17 +248,34 @@ public class Account
 		return result;
 	}
 	
+	/**
+	 * Compare the owners' names only when both are loaded; equals must never
+	 * load an owner from the database
+	 */
+	private boolean loadedOwnersMatch(Account other)
+	{
+		if( !this.isUserLoaded() || !other.isUserLoaded() )
+		{
+			return true;
+		}
+		return this.m_user == null ? other.m_user == null : this.m_user.equals(other.m_user);
+	}
+	
 	@Override
 	public String toString()
 	{
-		String fmt = String.format("ID: %d, %s %f", this.m_accountId, this.m_accountName, this.m_balance);
+		String fmt = String.format("ID: %d, %s %s", this.m_accountId, this.m_accountName, Money.format(this.m_balance));
 		return fmt;
 	}
 	
 	private long m_accountId;
 	private User m_user;
+	/** owner id and loader while the owner is not loaded yet */
+	private long m_userId;
+	private LongFunction<User> m_userLoader;
 	private String m_accountName;
-	private double m_balance;
+	/** balance in minor units (cents) */
+	private long m_balance;
 
 
 }
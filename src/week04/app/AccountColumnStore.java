@@ -0,0 +1,213 @@
+package week04.app;
+
+import java.util.Arrays;
+
+import week04.util.LongLongHashMap;
+
+/**
+ * Column oriented, in memory copy of many accounts for bulk balance scans.
+ *
+ * Instead of one Account object per row, ids, owner ids and balances (in
+ * minor units, see Money) are kept in primitive arrays and names in a separate
+ * array. A scan over balances reads one contiguous long array instead of
+ * following a reference to an object per row.
+ *
+ * Not thread safe while it is being filled.
+ */
+public class AccountColumnStore
+{
+	/**
+	 * Default constructor
+	 */
+	public AccountColumnStore()
+	{
+		this(1024);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param initialCapacity number of accounts to size the columns for
+	 */
+	public AccountColumnStore(int initialCapacity)
+	{
+		int capacity = Math.max(16, initialCapacity);
+		m_ids = new long[capacity];
+		m_userIds = new long[capacity];
+		m_balances = new long[capacity];
+		m_names = new String[capacity];
+	}
+
+	/**
+	 * Append an account row
+	 *
+	 * @param id account id
+	 * @param userId owner id
+	 * @param name account name
+	 * @param balance balance in minor units
+	 */
+	public void add(long id, long userId, String name, long balance)
+	{
+		if( m_size == m_ids.length )
+		{
+			int capacity = m_size * 2;
+			m_ids = Arrays.copyOf(m_ids, capacity);
+			m_userIds = Arrays.copyOf(m_userIds, capacity);
+			m_balances = Arrays.copyOf(m_balances, capacity);
+			m_names = Arrays.copyOf(m_names, capacity);
+		}
+		m_ids[m_size] = id;
+		m_userIds[m_size] = userId;
+		m_balances[m_size] = balance;
+		m_names[m_size] = name;
+		m_size++;
+	}
+
+	/**
+	 * Append an account
+	 *
+	 * @param account account to copy
+	 */
+	public void add(Account account)
+	{
+		add(account.getAccountId(), account.getUserId(), account.getName(),
+				account.getBalanceMinor());
+	}
+
+	/**
+	 * @return number of accounts
+	 */
+	public int size()
+	{
+		return m_size;
+	}
+
+	/**
+	 * @param row row index, 0 to size() - 1
+	 * @return account id of the row
+	 */
+	public long getAccountId(int row)
+	{
+		checkRow(row);
+		return m_ids[row];
+	}
+
+	/**
+	 * @param row row index, 0 to size() - 1
+	 * @return owner id of the row
+	 */
+	public long getUserId(int row)
+	{
+		checkRow(row);
+		return m_userIds[row];
+	}
+
+	/**
+	 * @param row row index, 0 to size() - 1
+	 * @return balance of the row in minor units
+	 */
+	public long getBalance(int row)
+	{
+		checkRow(row);
+		return m_balances[row];
+	}
+
+	/**
+	 * @param row row index, 0 to size() - 1
+	 * @return account name of the row
+	 */
+	public String getName(int row)
+	{
+		checkRow(row);
+		return m_names[row];
+	}
+
+	/**
+	 * Total of all balances, with the same overflow check as Money.add
+	 *
+	 * @return sum of the balances in minor units
+	 * @throws ArithmeticException the total does not fit in a long
+	 */
+	public long sumBalances()
+	{
+		long[] balances = m_balances;
+		int size = m_size;
+		long sum = 0;
+		for(int i = 0; i < size; i++)
+		{
+			sum = Money.add(sum, balances[i]);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return smallest balance in minor units, 0 if the store is empty
+	 */
+	public long minBalance()
+	{
+		long[] balances = m_balances;
+		int size = m_size;
+		if( size == 0 )
+		{
+			return 0;
+		}
+		long min = Long.MAX_VALUE;
+		for(int i = 0; i < size; i++)
+		{
+			min = Math.min(min, balances[i]);
+		}
+		return min;
+	}
+
+	/**
+	 * @return largest balance in minor units, 0 if the store is empty
+	 */
+	public long maxBalance()
+	{
+		long[] balances = m_balances;
+		int size = m_size;
+		if( size == 0 )
+		{
+			return 0;
+		}
+		long max = Long.MIN_VALUE;
+		for(int i = 0; i < size; i++)
+		{
+			max = Math.max(max, balances[i]);
+		}
+		return max;
+	}
+
+	/**
+	 * Total balance per owner
+	 *
+	 * @return map from user id to the sum of that user's balances in minor units
+	 * @throws ArithmeticException a user's total does not fit in a long
+	 */
+	public LongLongHashMap sumBalancesByUserId()
+	{
+		long[] userIds = m_userIds;
+		long[] balances = m_balances;
+		int size = m_size;
+		LongLongHashMap totals = new LongLongHashMap();
+		for(int i = 0; i < size; i++)
+		{
+			totals.put(userIds[i], Money.add(totals.get(userIds[i], 0), balances[i]));
+		}
+		return totals;
+	}
+
+	private void checkRow(int row)
+	{
+		if( row < 0 || row >= m_size )
+		{
+			throw new IndexOutOfBoundsException("Row " + row + ", size " + m_size);
+		}
+	}
+
+	private long[] m_ids;
+	private long[] m_userIds;
+	private long[] m_balances;
+	private String[] m_names;
+	private int m_size;
+}
@@ -0,0 +1,177 @@
+package week04.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import test.AbstractTestCase;
+import week04.util.LongLongHashMap;
+
+/**
+ * Tests the AccountColumnStore class and compares its scans with iterating
+ * a List of Account objects
+ *
+ */
+public class AccountColumnStoreTestCase extends AbstractTestCase
+{
+	private static final int ACCOUNTS = 1000000;
+	private static final int ACCOUNTS_PER_USER = 3;
+	private static final int ROUNDS = 10;
+
+	public AccountColumnStoreTestCase()
+	{
+		super("AccountColumnStoreTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			List<Account> accounts = new ArrayList<Account>(ACCOUNTS);
+			AccountColumnStore store = new AccountColumnStore(ACCOUNTS);
+			for(int i = 0; i < ACCOUNTS; i++)
+			{
+				long userId = i / ACCOUNTS_PER_USER + 1;
+				Account account = new Account(i + 1, new User(userId, "First", "Last"), "Checking", 0.0);
+				account.setBalanceMinor((i * 7919L) % 1000000 - 1000);
+				accounts.add(account);
+				store.add(account);
+			}
+
+			boolean test1 = testAggregates(accounts, store);
+			boolean test2 = testScanSpeed(accounts, store);
+			boolean test3 = testOverflow();
+
+			result = test1 && test2 && test3;
+		}
+		catch(Exception ex)
+		{
+			trace("TestAccountColumnStore: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testOverflow()
+	{
+		trace("Testing totals that overflow");
+		AccountColumnStore store = new AccountColumnStore();
+		store.add(1, 1, "Checking", Long.MAX_VALUE - 10);
+		store.add(2, 1, "Savings", 11);
+		boolean result = true;
+		try
+		{
+			trace(" *** Overflowing total returned " + store.sumBalances());
+			result = false;
+		}
+		catch(ArithmeticException ex)
+		{
+			// expected
+		}
+		try
+		{
+			trace(" *** Overflowing user total returned " + store.sumBalancesByUserId().get(1, 0));
+			result = false;
+		}
+		catch(ArithmeticException ex)
+		{
+			// expected
+		}
+		return result;
+	}
+
+	private boolean testAggregates(List<Account> accounts, AccountColumnStore store)
+	{
+		trace("Testing sum, min, max and group by user");
+		boolean result = true;
+
+		long sum = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for(Account account : accounts)
+		{
+			sum += account.getBalanceMinor();
+			min = Math.min(min, account.getBalanceMinor());
+			max = Math.max(max, account.getBalanceMinor());
+		}
+
+		if( store.sumBalances() != sum || store.minBalance() != min || store.maxBalance() != max )
+		{
+			trace(" *** Column aggregates differ from the account list");
+			result = false;
+		}
+
+		LongLongHashMap byUser = store.sumBalancesByUserId();
+		long expectedUsers = (ACCOUNTS + ACCOUNTS_PER_USER - 1) / ACCOUNTS_PER_USER;
+		if( byUser.size() != expectedUsers )
+		{
+			trace(" *** Wrong number of users: " + byUser.size());
+			result = false;
+		}
+
+		Account first = accounts.get(0);
+		long firstUserTotal = 0;
+		for(int i = 0; i < ACCOUNTS_PER_USER; i++)
+		{
+			firstUserTotal += accounts.get(i).getBalanceMinor();
+		}
+		if( byUser.get(first.getUser().getUserId(), 0) != firstUserTotal )
+		{
+			trace(" *** Wrong total for user " + first.getUser().getUserId());
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testScanSpeed(List<Account> accounts, AccountColumnStore store)
+	{
+		trace(String.format("Comparing balance scans over %d accounts, best of %d rounds", ACCOUNTS, ROUNDS));
+
+		long bestList = Long.MAX_VALUE;
+		long bestColumns = Long.MAX_VALUE;
+		long bestListByUser = Long.MAX_VALUE;
+		long bestColumnsByUser = Long.MAX_VALUE;
+		long check = 0;
+
+		for(int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			long sum = 0;
+			for(Account account : accounts)
+			{
+				sum += account.getBalanceMinor();
+			}
+			bestList = Math.min(bestList, System.nanoTime() - start);
+			check += sum;
+
+			start = System.nanoTime();
+			check -= store.sumBalances();
+			bestColumns = Math.min(bestColumns, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			LongLongHashMap listTotals = new LongLongHashMap();
+			for(Account account : accounts)
+			{
+				listTotals.addTo(account.getUser().getUserId(), account.getBalanceMinor());
+			}
+			bestListByUser = Math.min(bestListByUser, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			LongLongHashMap columnTotals = store.sumBalancesByUserId();
+			bestColumnsByUser = Math.min(bestColumnsByUser, System.nanoTime() - start);
+			check += listTotals.size() - columnTotals.size();
+		}
+
+		trace(String.format("sum:      List<Account> %.2f ms, columns %.2f ms (%.1fx)",
+				bestList / 1e6, bestColumns / 1e6, (double) bestList / bestColumns));
+		trace(String.format("by user:  List<Account> %.2f ms, columns %.2f ms (%.1fx)",
+				bestListByUser / 1e6, bestColumnsByUser / 1e6, (double) bestListByUser / bestColumnsByUser));
+
+		if( check != 0 )
+		{
+			trace(" *** Scan results differ");
+			return false;
+		}
+		return true;
+	}
+}
@@ -21,8 +21,10 @@ public class AccountTestCase extends AbstractTestCase
 		try
 		{
 			boolean test1 = testAccountClassEquals();
+			boolean test2 = testBalanceArithmetic();
+			boolean test3 = testLazyUser();
 
-			result = test1;
+			result = test1 && test2 && test3;
 		}
 		catch(Exception ex)
 		{
@@ -32,6 +34,102 @@ public class AccountTestCase extends AbstractTestCase
 	}
 
 	
+	private boolean testLazyUser()
+	{
+		trace("Testing an account whose user is loaded on first access");
+		boolean result = true;
+		
+		final int[] loads = new int[1];
+		Account account = new Account(7, 42, id -> {
+			loads[0]++;
+			return new User(id, "Jim", "Smith");
+		}, "Checking", 1.50);
+		
+		if( account.getUserId() != 42 || account.isUserLoaded() || loads[0] != 0 )
+		{
+			trace("User loaded before it was asked for");
+			result = false;
+		}
+		
+		Account copy = account.copyWithId(8);
+		if( copy.isUserLoaded() || copy.getUserId() != 42 || copy.getBalanceMinor() != 150 || loads[0] != 0 )
+		{
+			trace("Copying the account loaded its user");
+			result = false;
+		}
+		
+		Account twin = new Account(7, 42, id -> {
+			throw new IllegalStateException("equals loaded the owner");
+		}, "Checking", 1.50);
+		if( !account.equals(twin) || loads[0] != 0 || twin.isUserLoaded() )
+		{
+			trace("Comparing accounts loaded their users");
+			result = false;
+		}
+		
+		User user = account.getUser();
+		if( user.getUserId() != 42 || account.getUser() != user || loads[0] != 1 || !account.isUserLoaded() )
+		{
+			trace("User not loaded exactly once: " + loads[0] + " loads");
+			result = false;
+		}
+		if( !account.equals(twin) || twin.isUserLoaded() || account.equals(new Account(7, 43, null, "Checking", 1.50)) )
+		{
+			trace("Owner ids not compared without loading the other owner");
+			result = false;
+		}
+		
+		return result;
+	}
+	
+	private boolean testBalanceArithmetic()
+	{
+		trace("Testing fixed point balance arithmetic");
+		boolean result = true;
+		
+		Account account = new Account(new User(), "Savings", 0.10);
+		account.setBalance(account.getBalance() + 0.20);
+		if( account.getBalanceMinor() != 30 )
+		{
+			trace("0.10 + 0.20 not stored as 30 cents: " + account.getBalanceMinor());
+			result = false;
+		}
+		
+		account.addToBalance(12575);
+		account.subtractFromBalance(5);
+		if( account.getBalanceMinor() != 12600 || !Money.format(account.getBalanceMinor()).equals("126.00") )
+		{
+			trace("Unexpected balance: " + account.toString());
+			result = false;
+		}
+		
+		if( !Money.format(-5).equals("-0.05") || !Money.format(-1234).equals("-12.34") )
+		{
+			trace("Negative amounts formatted incorrectly");
+			result = false;
+		}
+		
+		if( Money.fromBigDecimal(Money.toBigDecimal(Long.MAX_VALUE)) != Long.MAX_VALUE )
+		{
+			trace("Decimal conversion lost precision");
+			result = false;
+		}
+		
+		account.setBalanceMinor(Long.MAX_VALUE);
+		try
+		{
+			account.addToBalance(1);
+			trace("Balance overflow not detected");
+			result = false;
+		}
+		catch(ArithmeticException ex)
+		{
+			// expected
+		}
+		
+		return result;
+	}
+	
 	private boolean testAccountClassEquals()
 	{
 		trace("Testing User class and equals");
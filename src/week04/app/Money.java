@@ -0,0 +1,120 @@
+package week04.app;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money amounts held as a primitive long count of minor units (cents).
+ *
+ * The arithmetic works on primitives only and throws ArithmeticException on
+ * overflow instead of wrapping, so balance changes allocate nothing. BigDecimal
+ * is only used at the edges, e.g. the database DECIMAL column.
+ */
+public final class Money
+{
+	/** Decimal places of the minor unit */
+	public static final int SCALE = 2;
+
+	/** Minor units in one major unit */
+	public static final long MINOR_PER_MAJOR = 100;
+
+	private Money()
+	{
+	}
+
+	/**
+	 * @param a amount in minor units
+	 * @param b amount in minor units
+	 * @return a + b
+	 * @throws ArithmeticException on overflow
+	 */
+	public static long add(long a, long b)
+	{
+		return Math.addExact(a, b);
+	}
+
+	/**
+	 * @param a amount in minor units
+	 * @param b amount in minor units
+	 * @return a - b
+	 * @throws ArithmeticException on overflow
+	 */
+	public static long subtract(long a, long b)
+	{
+		return Math.subtractExact(a, b);
+	}
+
+	/**
+	 * Convert a decimal amount, rounding half-even to the minor unit
+	 *
+	 * @param amount amount in major units, e.g. 125.52
+	 * @return amount in minor units
+	 * @throws ArithmeticException if the amount does not fit in a long
+	 */
+	public static long fromBigDecimal(BigDecimal amount)
+	{
+		return amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+	}
+
+	/**
+	 * @param minor amount in minor units
+	 * @return the same amount as an exact decimal with SCALE places
+	 */
+	public static BigDecimal toBigDecimal(long minor)
+	{
+		return BigDecimal.valueOf(minor, SCALE);
+	}
+
+	/**
+	 * Convert a double amount, rounding half-even to the minor unit. Kept for the
+	 * double based Account methods.
+	 *
+	 * @param amount amount in major units
+	 * @return amount in minor units
+	 */
+	public static long fromDouble(double amount)
+	{
+		return fromBigDecimal(BigDecimal.valueOf(amount));
+	}
+
+	/**
+	 * @param minor amount in minor units
+	 * @return nearest double in major units
+	 */
+	public static double toDouble(long minor)
+	{
+		return minor / (double) MINOR_PER_MAJOR;
+	}
+
+	/**
+	 * Append the amount as major.minor, e.g. -12.05, without intermediate objects
+	 *
+	 * @param buf destination
+	 * @param minor amount in minor units
+	 * @return buf
+	 */
+	public static StringBuilder appendTo(StringBuilder buf, long minor)
+	{
+		long major = minor / MINOR_PER_MAJOR;
+		long cents = Math.abs(minor % MINOR_PER_MAJOR);
+		if( minor < 0 && major == 0 )
+		{
+			buf.append('-');
+		}
+		buf.append(major).append('.');
+		if( cents < 10 )
+		{
+			buf.append('0');
+		}
+		return buf.append(cents);
+	}
+
+	/**
+	 * @param minor amount in minor units
+	 * @return amount as major.minor
+	 */
+	public static String format(long minor)
+	{
+		return appendTo(new StringBuilder(24), minor).toString();
+	}
+}
@@ -0,0 +1,192 @@
+package week04.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Generates unique system ids for new Users and Accounts.
+ *
+ * Ids are handed out from blocks reserved from a BlockSource (hi/lo allocation).
+ * Taking an id from the current block is a single atomic increment; only the
+ * thread that finds the block used up goes back to the source for a new one.
+ *
+ * Each id carries the node id in its high bits, so several ATM nodes sharing a
+ * database never hand out the same id. Use these ids instead of the database
+ * AUTO_INCREMENT for a table, not alongside it.
+ */
+public class SystemIdGenerator
+{
+	/** Bits of an id holding the per-node sequence */
+	public static final int SEQUENCE_BITS = 48;
+
+	/** Largest node id that keeps the generated ids positive */
+	public static final int MAX_NODE_ID = (1 << (63 - SEQUENCE_BITS)) - 1;
+
+	/** Default number of ids reserved per round trip to the source */
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	/**
+	 * Reserves blocks of ids. Must never return overlapping blocks, including
+	 * across restarts if ids are persisted.
+	 */
+	public interface BlockSource
+	{
+		/**
+		 * @param blockSize number of ids wanted
+		 * @return first id of a block of blockSize ids reserved for this caller
+		 * @throws Exception the block could not be reserved
+		 */
+		long reserveBlock(int blockSize) throws Exception;
+	}
+
+	/**
+	 * In memory source for tests. Ids are unique within the process only and start
+	 * again at 1 on every run, so they collide across restarts, across nodes and
+	 * with stored ids; never use it for ids that are persisted.
+	 */
+	public static class LocalBlockSource implements BlockSource
+	{
+		@Override
+		public long reserveBlock(int blockSize)
+		{
+			return m_next.getAndAdd(blockSize);
+		}
+
+		private final AtomicLong m_next = new AtomicLong(1);
+	}
+
+	/**
+	 * Get the generator set up by configure, normally with a DatabaseIdBlockSource
+	 *
+	 * @return the shared generator
+	 * @throws IllegalStateException configure has not been called
+	 */
+	public static synchronized SystemIdGenerator getInstance()
+	{
+		if( m_instance == null )
+		{
+			throw new IllegalStateException("SystemIdGenerator is not configured; call configure with a "
+					+ "DatabaseIdBlockSource first");
+		}
+		return m_instance;
+	}
+
+	/**
+	 * Replace the shared generator
+	 *
+	 * @param nodeId id of this ATM node, 0 to MAX_NODE_ID
+	 * @param blockSize ids reserved per call to the source
+	 * @param source where blocks are reserved
+	 */
+	public static synchronized void configure(int nodeId, int blockSize, BlockSource source)
+	{
+		m_instance = new SystemIdGenerator(nodeId, blockSize, source);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param nodeId id of this ATM node, 0 to MAX_NODE_ID
+	 * @param blockSize ids reserved per call to the source
+	 * @param source where blocks are reserved
+	 */
+	public SystemIdGenerator(int nodeId, int blockSize, BlockSource source)
+	{
+		if( nodeId < 0 || nodeId > MAX_NODE_ID )
+		{
+			throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID);
+		}
+		if( blockSize < 1 )
+		{
+			throw new IllegalArgumentException("blockSize must be at least 1");
+		}
+
+		m_nodePrefix = (long) nodeId << SEQUENCE_BITS;
+		m_blockSize = blockSize;
+		m_source = source;
+		m_current = new AtomicReference<Block>(Block.EMPTY);
+	}
+
+	/**
+	 * Get the next unique id
+	 *
+	 * @return new id
+	 * @throws IllegalStateException if a new block could not be reserved
+	 */
+	public long getNextId()
+	{
+		while( true )
+		{
+			Block block = m_current.get();
+			long sequence = block.m_next.getAndIncrement();
+			if( sequence < block.m_limit )
+			{
+				return m_nodePrefix | sequence;
+			}
+			refill(block);
+		}
+	}
+
+	/**
+	 * @return number of blocks reserved from the source so far
+	 */
+	public long getBlocksReserved()
+	{
+		return m_blocksReserved.get();
+	}
+
+	/**
+	 * Slow path, taken once per block. The lock keeps threads that all found the
+	 * same block used up from reserving one block each.
+	 */
+	private synchronized void refill(Block exhausted)
+	{
+		if( m_current.get() != exhausted )
+		{
+			// another thread already replaced it
+			return;
+		}
+
+		long start;
+		try
+		{
+			start = m_source.reserveBlock(m_blockSize);
+		}
+		catch(Exception ex)
+		{
+			throw new IllegalStateException("Unable to reserve a block of ids", ex);
+		}
+
+		long limit = start + m_blockSize;
+		if( start < 0 || limit > (1L << SEQUENCE_BITS) )
+		{
+			throw new IllegalStateException("Id sequence exhausted for this node");
+		}
+
+		m_blocksReserved.incrementAndGet();
+		m_current.set(new Block(start, limit));
+	}
+
+	/** A reserved range of sequence numbers [next, limit) */
+	private static final class Block
+	{
+		private static final Block EMPTY = new Block(0, 0);
+
+		private Block(long start, long limit)
+		{
+			m_next = new AtomicLong(start);
+			m_limit = limit;
+		}
+
+		private final AtomicLong m_next;
+		private final long m_limit;
+	}
+
+	private static SystemIdGenerator m_instance = null;
+
+	private final long m_nodePrefix;
+	private final int m_blockSize;
+	private final BlockSource m_source;
+	private final AtomicReference<Block> m_current;
+	private final AtomicLong m_blocksReserved = new AtomicLong();
+}
@@ -0,0 +1,133 @@
+package week04.app;
+
+import java.util.Arrays;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests the SystemIdGenerator class
+ */
+public class SystemIdGeneratorTestCase extends AbstractTestCase
+{
+	public SystemIdGeneratorTestCase()
+	{
+		super("SystemIdGeneratorTestCase");
+	}
+
+	/**
+	 * Executes multiple threads to test ID generator thread safety. Measures
+	 * execution time
+	 */
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testNodePrefix();
+			boolean test2 = testConcurrentIds();
+
+			result = test1 && test2;
+		}
+		catch(Exception ex)
+		{
+			trace("TestSystemIdGenerator: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testNodePrefix()
+	{
+		trace("Testing node id prefix");
+		boolean result = true;
+
+		SystemIdGenerator node1 = new SystemIdGenerator(1, 10,
+				new SystemIdGenerator.LocalBlockSource());
+		SystemIdGenerator node2 = new SystemIdGenerator(2, 10,
+				new SystemIdGenerator.LocalBlockSource());
+
+		long id1 = node1.getNextId();
+		long id2 = node2.getNextId();
+		trace(String.format("node 1 id: %d, node 2 id: %d", id1, id2));
+
+		if( id1 == id2 || id1 <= 0 || id2 <= 0 )
+		{
+			trace(" *** Nodes generated colliding or negative ids");
+			result = false;
+		}
+		if( (id2 >>> SystemIdGenerator.SEQUENCE_BITS) != 2 )
+		{
+			trace(" *** Node id missing from generated id");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testConcurrentIds() throws InterruptedException
+	{
+		final int threadCount = 8;
+		final int idsPerThread = 200000;
+		final int blockSize = 1000;
+		trace(String.format("Testing %d threads generating %d ids each", threadCount, idsPerThread));
+		boolean result = true;
+
+		final SystemIdGenerator generator = new SystemIdGenerator(0, blockSize,
+				new SystemIdGenerator.LocalBlockSource());
+		final long[][] generated = new long[threadCount][idsPerThread];
+
+		Thread[] threads = new Thread[threadCount];
+		for(int t = 0; t < threadCount; t++)
+		{
+			final long[] ids = generated[t];
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(int i = 0; i < ids.length; i++)
+					{
+						ids[i] = generator.getNextId();
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		int total = threadCount * idsPerThread;
+		trace(String.format("Generated %d ids in %.1f ms (%.1f million ids/sec), %d blocks reserved",
+				total, elapsed / 1e6, total * 1e3 / elapsed, generator.getBlocksReserved()));
+
+		long[] all = new long[total];
+		for(int t = 0; t < threadCount; t++)
+		{
+			System.arraycopy(generated[t], 0, all, t * idsPerThread, idsPerThread);
+		}
+		Arrays.sort(all);
+		for(int i = 1; i < all.length; i++)
+		{
+			if( all[i] == all[i - 1] )
+			{
+				trace(" *** Duplicate id generated: " + all[i]);
+				result = false;
+				break;
+			}
+		}
+
+		if( generator.getBlocksReserved() != total / blockSize )
+		{
+			trace(" *** Blocks reserved more often than needed");
+			result = false;
+		}
+		return result;
+	}
+}
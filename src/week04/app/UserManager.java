@@ -0,0 +1,124 @@
+package week04.app;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import week04.AtmException;
+import week04.util.ConcurrentLongObjectMap;
+
+/**
+ * In memory registry of the users known to this ATM node.
+ *
+ * Users are indexed by their primitive user id. Lookups take no locks and
+ * can run on any number of threads alongside writers.
+ */
+public class UserManager
+{
+	/**
+	 * Default constructor
+	 */
+	public UserManager()
+	{
+		this(0);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param expectedUsers number of users to size the index for
+	 */
+	public UserManager(int expectedUsers)
+	{
+		m_users = new ConcurrentLongObjectMap<User>(64, expectedUsers);
+	}
+
+	/**
+	 * Add or replace a user
+	 *
+	 * @param user User with a system assigned id
+	 * @throws AtmException if the user is null or has not been given an id
+	 */
+	public void addUser(User user) throws AtmException
+	{
+		if( user == null )
+		{
+			throw new AtmException("User reference is null");
+		}
+		if( user.getUserId() < 1 )
+		{
+			throw new AtmException("Invalid user id: " + user.getUserId());
+		}
+
+		m_users.put(user.getUserId(), user);
+		m_version.incrementAndGet();
+	}
+
+	/**
+	 * @param userId id of the user to find
+	 * @return the user or null if unknown
+	 */
+	public User getUser(long userId)
+	{
+		return m_users.get(userId);
+	}
+
+	/**
+	 * @param userId id of the user to remove
+	 * @return the removed user or null if unknown
+	 */
+	public User removeUser(long userId)
+	{
+		User removed = m_users.remove(userId);
+		if( removed != null )
+		{
+			m_version.incrementAndGet();
+		}
+		return removed;
+	}
+
+	/**
+	 * @return number of users
+	 */
+	public int getUserCount()
+	{
+		return m_users.size();
+	}
+
+	/**
+	 * Get all users. The list is read-only and is shared between callers until
+	 * the next change, so repeated calls without writes in between cost nothing.
+	 *
+	 * @return read-only list of users
+	 */
+	public List<User> getUserList()
+	{
+		Snapshot snapshot = m_snapshot;
+		long version = m_version.get();
+		if( snapshot != null && snapshot.m_version == version )
+		{
+			return snapshot.m_users;
+		}
+
+		// taking the version first means a write during the copy leaves this snapshot stale
+		List<User> users = Collections.unmodifiableList(m_users.values());
+		m_snapshot = new Snapshot(version, users);
+		return users;
+	}
+
+	private static final class Snapshot
+	{
+		private Snapshot(long version, List<User> users)
+		{
+			m_version = version;
+			m_users = users;
+		}
+
+		private final long m_version;
+		private final List<User> m_users;
+	}
+
+	private final ConcurrentLongObjectMap<User> m_users;
+	private final AtomicLong m_version = new AtomicLong();
+	private volatile Snapshot m_snapshot = null;
+}
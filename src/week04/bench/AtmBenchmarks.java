@@ -0,0 +1,259 @@
+package week04.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import week04.app.Account;
+import week04.app.User;
+import week04.data.DataAccess;
+import week04.util.AsyncHtmlLogHandler;
+import week04.util.AtmHtmlLoggingFormatter;
+import week04.util.BinaryLogHandler;
+
+/**
+ * The benchmarks BenchmarkRunner runs: the User and Account model methods, the
+ * HTML log formatter, and DataAccess lookups, saves and listings.
+ */
+public final class AtmBenchmarks
+{
+	private static final int DATA_USERS = 1000;
+
+	private AtmBenchmarks()
+	{
+	}
+
+	/**
+	 * @return a new instance of every benchmark
+	 */
+	public static List<Benchmark> all()
+	{
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(userEquals());
+		benchmarks.add(userToString());
+		benchmarks.add(accountEquals());
+		benchmarks.add(formatterFormat());
+		benchmarks.add(asyncHandlerPublish());
+		benchmarks.add(binaryHandlerPublish());
+
+		benchmarks.add(new DataBenchmark("DataAccess.getUserById")
+		{
+			@Override
+			public Object invoke() throws Exception
+			{
+				return m_dataAccess.getUserById(nextUser().getUserId());
+			}
+		});
+		benchmarks.add(new DataBenchmark("DataAccess.saveUser")
+		{
+			@Override
+			public Object invoke() throws Exception
+			{
+				User user = nextUser();
+				return m_dataAccess.saveUser(new User(user.getUserId(), user.getFirstName(), user.getLastName()));
+			}
+		});
+		benchmarks.add(new DataBenchmark("DataAccess.getUsers(page)")
+		{
+			@Override
+			public Object invoke() throws Exception
+			{
+				return m_dataAccess.getUsers(nextUser().getUserId() - 1, 50);
+			}
+		});
+		benchmarks.add(new DataBenchmark("DataAccess.getUsers")
+		{
+			@Override
+			public Object invoke() throws Exception
+			{
+				return m_dataAccess.getUsers();
+			}
+		});
+		return benchmarks;
+	}
+
+	private static Benchmark userEquals()
+	{
+		return new Benchmark("User.equals")
+		{
+			// distinct but equal instances, so equals has to compare the fields
+			private final User m_a = new User(42, new String("Grace"), new String("Hopper"));
+			private final User m_b = new User(42, new String("Grace"), new String("Hopper"));
+
+			@Override
+			public Object invoke()
+			{
+				return m_a.equals(m_b);
+			}
+		};
+	}
+
+	private static Benchmark userToString()
+	{
+		return new Benchmark("User.toString")
+		{
+			private final User m_user = new User(42, "Grace", "Hopper");
+
+			@Override
+			public Object invoke()
+			{
+				return m_user.toString();
+			}
+		};
+	}
+
+	private static Benchmark accountEquals()
+	{
+		return new Benchmark("Account.equals")
+		{
+			private final Account m_a = new Account(7, new User(42, "Grace", "Hopper"), "Checking", 125.52);
+			private final Account m_b = new Account(7, new User(42, "Grace", "Hopper"), "Checking", 125.52);
+
+			@Override
+			public Object invoke()
+			{
+				return m_a.equals(m_b);
+			}
+		};
+	}
+
+	private static Benchmark formatterFormat()
+	{
+		return new Benchmark("AtmHtmlLoggingFormatter.format")
+		{
+			private final AtmHtmlLoggingFormatter m_formatter = new AtmHtmlLoggingFormatter();
+			private final LogRecord m_info = newRecord(Level.INFO, "User {0} saved account {1}");
+			private final LogRecord m_warning = newRecord(Level.WARNING, "Lease of connection {0} timed out");
+			private long m_count = 0;
+
+			@Override
+			public Object invoke()
+			{
+				return m_formatter.format((m_count++ & 7) == 0 ? m_warning : m_info);
+			}
+		};
+	}
+
+	private static Benchmark asyncHandlerPublish()
+	{
+		return new Benchmark("AsyncHtmlLogHandler.publish")
+		{
+			private final LogRecord m_info = newRecord(Level.INFO, "User {0} saved account {1}");
+			private AsyncHtmlLogHandler m_handler;
+
+			@Override
+			public void setUp()
+			{
+				// BLOCK, so the measured rate is what the writer thread sustains
+				m_handler = new AsyncHtmlLogHandler(Writer.nullWriter(), 8192,
+						AsyncHtmlLogHandler.OverflowPolicy.BLOCK, Level.WARNING);
+			}
+
+			@Override
+			public Object invoke()
+			{
+				m_handler.publish(m_info);
+				return m_handler;
+			}
+
+			@Override
+			public void tearDown()
+			{
+				m_handler.close();
+			}
+		};
+	}
+
+	private static Benchmark binaryHandlerPublish()
+	{
+		return new Benchmark("BinaryLogHandler.publish")
+		{
+			private final LogRecord m_info = newRecord(Level.INFO, "User {0} saved account {1}");
+			private Path m_file;
+			private BinaryLogHandler m_handler;
+
+			@Override
+			public void setUp() throws IOException
+			{
+				m_file = Files.createTempFile("atm-bench", ".binlog");
+				m_handler = new BinaryLogHandler(m_file);
+			}
+
+			@Override
+			public Object invoke()
+			{
+				m_handler.publish(m_info);
+				return m_handler;
+			}
+
+			@Override
+			public void tearDown() throws IOException
+			{
+				m_handler.close();
+				Files.delete(m_file);
+			}
+		};
+	}
+
+	private static LogRecord newRecord(Level level, String message)
+	{
+		LogRecord record = new LogRecord(level, message);
+		record.setLoggerName("week04.data.DataAccess");
+		record.setParameters(new Object[] { 42L, "Checking" });
+		return record;
+	}
+
+	/**
+	 * A DataAccess benchmark over its own set of users, inserted by setUp() and
+	 * removed by tearDown()
+	 */
+	private abstract static class DataBenchmark extends Benchmark
+	{
+		DataBenchmark(String name)
+		{
+			super(name);
+		}
+
+		@Override
+		public void setUp() throws Exception
+		{
+			m_dataAccess.connect();
+			List<User> users = new ArrayList<User>(DATA_USERS);
+			for(int i = 0; i < DATA_USERS; i++)
+			{
+				users.add(new User("Bench" + i, "User" + i));
+			}
+			m_users = m_dataAccess.saveUsers(users).getSucceeded();
+			if( m_users.isEmpty() )
+			{
+				throw new IllegalStateException("No benchmark users could be saved");
+			}
+		}
+
+		@Override
+		public void tearDown() throws Exception
+		{
+			if( m_users != null )
+			{
+				m_dataAccess.removeUsers(m_users);
+				m_users = null;
+			}
+			m_dataAccess.close();
+		}
+
+		protected User nextUser()
+		{
+			m_next = (m_next + 1) % m_users.size();
+			return m_users.get(m_next);
+		}
+
+		protected final DataAccess m_dataAccess = DataAccess.getInstance();
+		private List<User> m_users;
+		private int m_next = 0;
+	}
+}
@@ -0,0 +1,55 @@
+package week04.bench;
+
+/**
+ * One measured operation. BenchmarkRunner calls setUp() once, then invoke()
+ * repeatedly while timing it, then tearDown(). invoke() returns its result so
+ * the runner can consume it and the JIT cannot remove the work as dead code.
+ */
+public abstract class Benchmark
+{
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param name name results are reported under, e.g. "User.equals"
+	 */
+	protected Benchmark(String name)
+	{
+		m_name = name;
+	}
+
+	/**
+	 * @return name results are reported under
+	 */
+	public String getName()
+	{
+		return m_name;
+	}
+
+	/**
+	 * Prepare the state invoke() works on. Not measured.
+	 *
+	 * @throws Exception the benchmark cannot run, e.g. no database; it is reported as failed
+	 */
+	public void setUp() throws Exception
+	{
+	}
+
+	/**
+	 * Perform the measured operation once
+	 *
+	 * @return result of the operation
+	 * @throws Exception the operation failed; the benchmark is reported as failed
+	 */
+	public abstract Object invoke() throws Exception;
+
+	/**
+	 * Release what setUp() created. Not measured.
+	 *
+	 * @throws Exception cleanup failed
+	 */
+	public void tearDown() throws Exception
+	{
+	}
+
+	private final String m_name;
+}
@@ -0,0 +1,165 @@
+package week04.bench;
+
+import java.util.Locale;
+
+/**
+ * Measurements of one benchmark, averaged over its measurement iterations
+ */
+public class BenchmarkResult
+{
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param name benchmark name
+	 * @param status "ok" or "failed"
+	 * @param message reason for failed, otherwise empty
+	 * @param iterations measurement iterations run
+	 * @param operations operations measured over all iterations
+	 * @param opsPerSecond mean throughput
+	 * @param opsPerSecondError standard deviation of the throughput between iterations
+	 * @param nanosPerOp mean time per operation
+	 * @param bytesPerOp mean bytes allocated per operation, -1 if the JVM cannot tell
+	 */
+	public BenchmarkResult(String name, String status, String message, int iterations, long operations,
+			double opsPerSecond, double opsPerSecondError, double nanosPerOp, double bytesPerOp)
+	{
+		m_name = name;
+		m_status = status;
+		m_message = message;
+		m_iterations = iterations;
+		m_operations = operations;
+		m_opsPerSecond = opsPerSecond;
+		m_opsPerSecondError = opsPerSecondError;
+		m_nanosPerOp = nanosPerOp;
+		m_bytesPerOp = bytesPerOp;
+	}
+
+	/**
+	 * @param name benchmark name
+	 * @param status "failed"
+	 * @param message reason
+	 * @return a result without measurements
+	 */
+	public static BenchmarkResult notRun(String name, String status, String message)
+	{
+		return new BenchmarkResult(name, status, message == null ? "" : message, 0, 0, 0, 0, 0, -1);
+	}
+
+	public String getName()
+	{
+		return m_name;
+	}
+
+	public String getStatus()
+	{
+		return m_status;
+	}
+
+	public String getMessage()
+	{
+		return m_message;
+	}
+
+	public int getIterations()
+	{
+		return m_iterations;
+	}
+
+	public long getOperations()
+	{
+		return m_operations;
+	}
+
+	public double getOpsPerSecond()
+	{
+		return m_opsPerSecond;
+	}
+
+	public double getOpsPerSecondError()
+	{
+		return m_opsPerSecondError;
+	}
+
+	public double getNanosPerOp()
+	{
+		return m_nanosPerOp;
+	}
+
+	public double getBytesPerOp()
+	{
+		return m_bytesPerOp;
+	}
+
+	/**
+	 * @return column names matching toCsv()
+	 */
+	public static String csvHeader()
+	{
+		return "name,status,iterations,operations,ops_per_sec,ops_per_sec_error,ns_per_op,bytes_per_op,message";
+	}
+
+	/**
+	 * @return one CSV row
+	 */
+	public String toCsv()
+	{
+		return String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,\"%s\"", m_name, m_status, m_iterations,
+				m_operations, m_opsPerSecond, m_opsPerSecondError, m_nanosPerOp, m_bytesPerOp,
+				m_message.replace("\"", "\"\""));
+	}
+
+	/**
+	 * @return one JSON object
+	 */
+	public String toJson()
+	{
+		return String.format(Locale.ROOT, "{\"name\": \"%s\", \"status\": \"%s\", \"iterations\": %d, \"operations\": %d, "
+				+ "\"opsPerSecond\": %.3f, \"opsPerSecondError\": %.3f, \"nanosPerOp\": %.3f, "
+				+ "\"bytesPerOp\": %.3f, \"message\": \"%s\"}", jsonEscape(m_name), m_status, m_iterations,
+				m_operations, m_opsPerSecond, m_opsPerSecondError, m_nanosPerOp, m_bytesPerOp,
+				jsonEscape(m_message));
+	}
+
+	private static String jsonEscape(String value)
+	{
+		StringBuilder buf = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if( c == '"' || c == '\\' )
+			{
+				buf.append('\\').append(c);
+			}
+			else if( c < 0x20 )
+			{
+				buf.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				buf.append(c);
+			}
+		}
+		return buf.toString();
+	}
+
+	@Override
+	public String toString()
+	{
+		if( !m_status.equals("ok") )
+		{
+			return String.format("%-36s %s: %s", m_name, m_status, m_message);
+		}
+		return String.format("%-36s %14.1f ops/s +- %10.1f %12.1f ns/op %10.1f B/op", m_name, m_opsPerSecond,
+				m_opsPerSecondError, m_nanosPerOp, m_bytesPerOp);
+	}
+
+	private final String m_name;
+	private final String m_status;
+	private final String m_message;
+	private final int m_iterations;
+	private final long m_operations;
+	private final double m_opsPerSecond;
+	private final double m_opsPerSecondError;
+	private final double m_nanosPerOp;
+	private final double m_bytesPerOp;
+}
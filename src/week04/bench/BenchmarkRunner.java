@@ -0,0 +1,291 @@
+package week04.bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import week04.data.DataAccess;
+
+/**
+ * Runs the ATM microbenchmarks and writes machine readable results.
+ *
+ * Each benchmark gets warmup iterations, so the JIT has compiled it, then
+ * measurement iterations of a fixed time. Throughput is reported as the mean
+ * and standard deviation over the measurement iterations. Allocation per
+ * operation comes from the HotSpot per-thread allocation counter.
+ *
+ * Usage:
+ *
+ *   java -cp classes week04.bench.BenchmarkRunner [-format json|csv] [-out file]
+ *        [-warmup 3] [-iterations 5] [-time 1000] [-filter text] [-exclude text]
+ *        [-url jdbc-url]
+ *
+ * -url points the DataAccess benchmarks at a database with the atm schema,
+ * e.g. a local embedded MariaDB. A benchmark that cannot be set up, such as a
+ * DataAccess one without a reachable database, is reported as failed and the
+ * runner exits with status 1; use -exclude DataAccess to run without one.
+ */
+public class BenchmarkRunner
+{
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param warmupIterations iterations run before measuring
+	 * @param iterations measured iterations
+	 * @param iterationMillis length of each iteration
+	 */
+	public BenchmarkRunner(int warmupIterations, int iterations, long iterationMillis)
+	{
+		m_warmupIterations = warmupIterations;
+		m_iterations = iterations;
+		m_iterationNanos = iterationMillis * 1000000L;
+	}
+
+	public static void main(String[] args)
+	{
+		String format = "json";
+		String out = null;
+		String filter = null;
+		String exclude = null;
+		int warmup = 3;
+		int iterations = 5;
+		long time = 1000;
+		try
+		{
+			for(int i = 0; i < args.length; i++)
+			{
+				String option = args[i];
+				String value = i + 1 < args.length ? args[++i] : "";
+				if( option.equals("-format") )
+					format = value;
+				else if( option.equals("-out") )
+					out = value;
+				else if( option.equals("-filter") )
+					filter = value;
+				else if( option.equals("-exclude") )
+					exclude = value;
+				else if( option.equals("-warmup") )
+					warmup = Integer.parseInt(value);
+				else if( option.equals("-iterations") )
+					iterations = Integer.parseInt(value);
+				else if( option.equals("-time") )
+					time = Long.parseLong(value);
+				else if( option.equals("-url") )
+					DataAccess.setUrl(value);
+				else
+					throw new IllegalArgumentException("Unknown option " + option);
+			}
+			if( !format.equals("json") && !format.equals("csv") )
+				throw new IllegalArgumentException("Unknown format " + format);
+		}
+		catch(RuntimeException ex)
+		{
+			System.err.println("Bad option: " + ex.getMessage());
+			System.err.println("Usage: BenchmarkRunner [-format json|csv] [-out file] [-warmup N] "
+					+ "[-iterations N] [-time MILLIS] [-filter TEXT] [-exclude TEXT] [-url JDBC-URL]");
+			System.exit(2);
+			return;
+		}
+
+		BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, time);
+		List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+		int failures = 0;
+		for(Benchmark benchmark : AtmBenchmarks.all())
+		{
+			if( (filter == null || benchmark.getName().contains(filter))
+					&& (exclude == null || !benchmark.getName().contains(exclude)) )
+			{
+				BenchmarkResult result = runner.run(benchmark);
+				System.err.println(result);
+				results.add(result);
+				if( !result.getStatus().equals("ok") )
+					failures++;
+			}
+		}
+
+		try
+		{
+			write(results, format, out);
+		}
+		catch(IOException ex)
+		{
+			System.err.println("Could not write results: " + ex.getMessage());
+			System.exit(1);
+		}
+		if( failures > 0 )
+		{
+			System.err.println(failures + " of " + results.size() + " benchmarks failed");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Set up, warm up, measure and tear down one benchmark
+	 *
+	 * @param benchmark benchmark to run
+	 * @return its measurements, or why it did not run
+	 */
+	public BenchmarkResult run(Benchmark benchmark)
+	{
+		try
+		{
+			benchmark.setUp();
+		}
+		catch(Exception ex)
+		{
+			return BenchmarkResult.notRun(benchmark.getName(), "failed", "set up: " + ex.getMessage());
+		}
+
+		try
+		{
+			for(int i = 0; i < m_warmupIterations; i++)
+			{
+				iterate(benchmark);
+			}
+
+			double[] opsPerSecond = new double[m_iterations];
+			long operations = 0;
+			long nanos = 0;
+			long bytes = 0;
+			for(int i = 0; i < m_iterations; i++)
+			{
+				long allocatedBefore = allocatedBytes();
+				long[] measured = iterate(benchmark);
+				long allocatedAfter = allocatedBytes();
+
+				opsPerSecond[i] = measured[0] * 1e9 / measured[1];
+				operations += measured[0];
+				nanos += measured[1];
+				bytes += allocatedAfter - allocatedBefore;
+			}
+
+			double mean = 0;
+			for(double value : opsPerSecond)
+			{
+				mean += value / m_iterations;
+			}
+			double variance = 0;
+			for(double value : opsPerSecond)
+			{
+				variance += (value - mean) * (value - mean) / m_iterations;
+			}
+			double bytesPerOp = allocatedBytes() < 0 ? -1 : (double) bytes / operations;
+			return new BenchmarkResult(benchmark.getName(), "ok", "", m_iterations, operations, mean,
+					Math.sqrt(variance), (double) nanos / operations, bytesPerOp);
+		}
+		catch(Exception ex)
+		{
+			return BenchmarkResult.notRun(benchmark.getName(), "failed", String.valueOf(ex.getMessage()));
+		}
+		finally
+		{
+			try
+			{
+				benchmark.tearDown();
+			}
+			catch(Exception ex)
+			{
+				System.err.println(benchmark.getName() + ": tear down failed: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Invoke the benchmark in growing batches until the iteration time is up, so
+	 * the clock is read rarely compared to fast operations.
+	 *
+	 * @return operations and elapsed nanoseconds
+	 */
+	private long[] iterate(Benchmark benchmark) throws Exception
+	{
+		long operations = 0;
+		long batch = 1;
+		long start = System.nanoTime();
+		long elapsed;
+		do
+		{
+			for(long i = 0; i < batch; i++)
+			{
+				consume(benchmark.invoke());
+			}
+			operations += batch;
+			if( batch < 4096 )
+			{
+				batch <<= 1;
+			}
+			elapsed = System.nanoTime() - start;
+		}
+		while( elapsed < m_iterationNanos );
+		return new long[] { operations, elapsed };
+	}
+
+	/** Keeps results alive: the JIT cannot prove the comparison is always false */
+	private void consume(Object result)
+	{
+		if( result == m_sink )
+		{
+			m_sink = new Object();
+		}
+	}
+
+	/** @return bytes allocated by this thread so far, -1 if the JVM does not count them */
+	private static long allocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if( threads instanceof com.sun.management.ThreadMXBean )
+		{
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if( hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled() )
+			{
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	private static void write(List<BenchmarkResult> results, String format, String out) throws IOException
+	{
+		PrintWriter writer = out == null
+				? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+				: new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8));
+		try
+		{
+			if( format.equals("csv") )
+			{
+				writer.println(BenchmarkResult.csvHeader());
+				for(BenchmarkResult result : results)
+				{
+					writer.println(result.toCsv());
+				}
+			}
+			else
+			{
+				writer.println("{\"jvm\": \"" + System.getProperty("java.vm.version") + "\", "
+						+ "\"timestamp\": " + System.currentTimeMillis() + ", \"results\": [");
+				for(int i = 0; i < results.size(); i++)
+				{
+					writer.println("  " + results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+				}
+				writer.println("]}");
+			}
+		}
+		finally
+		{
+			if( out == null )
+				writer.flush();
+			else
+				writer.close();
+		}
+	}
+
+	private final int m_warmupIterations;
+	private final int m_iterations;
+	private final long m_iterationNanos;
+	private volatile Object m_sink = new Object();
+}
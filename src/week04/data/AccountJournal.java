@@ -0,0 +1,354 @@
+package week04.data;
+
+import week04.util.LongLongHashMap;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of account balance changes.
+ *
+ * append() writes a record into a memory-mapped file and returns once the record
+ * is on disk. Concurrent appenders share fsyncs (group commit): one thread forces
+ * the file for every record written so far while the others wait for it, so an
+ * acknowledgement costs at most one local fsync, never a database round trip.
+ *
+ * A background thread replays durable records into the account table through a
+ * ReplayTarget. Each replayed batch stores its last sequence in the same
+ * transaction, so after a restart the journal replays exactly the records the
+ * database has not seen. A failed apply may still have committed, so the next
+ * replay reads the checkpoint again before it builds its batch.
+ */
+public class AccountJournal implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(AccountJournal.class.getName());
+
+    /** sequence, account id, amount, timestamp, crc, magic */
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 8 + 4 + 4;
+    private static final int RECORD_MAGIC = 0x41544d4a;
+
+    /**
+     * Where replayed records go. databaseTarget() applies them to the account table.
+     */
+    public interface ReplayTarget {
+        /**
+         * @param journalName - journal name
+         * @return - last sequence already applied, 0 if none
+         */
+        long getCheckpoint(String journalName) throws AtmDataException;
+
+        /**
+         * Apply the summed changes of records firstSequence to lastSequence and store
+         * lastSequence as the checkpoint, atomically
+         */
+        void apply(String journalName, LongLongHashMap deltas, long firstSequence, long lastSequence)
+                throws AtmDataException;
+    }
+
+    /**
+     * @param dataAccess - database to replay into
+     * @return - target using DataAccess.getJournalCheckpoint and applyJournalBatch
+     */
+    public static ReplayTarget databaseTarget(final DataAccess dataAccess) {
+        return new ReplayTarget() {
+            @Override
+            public long getCheckpoint(String journalName) throws AtmDataException {
+                return dataAccess.getJournalCheckpoint(journalName);
+            }
+
+            @Override
+            public void apply(String journalName, LongLongHashMap deltas, long firstSequence, long lastSequence)
+                    throws AtmDataException {
+                dataAccess.applyJournalBatch(journalName, deltas, firstSequence, lastSequence);
+            }
+        };
+    }
+
+    private final String m_name;
+    private final ReplayTarget m_target;
+    private final FileChannel m_channel;
+    private final MappedByteBuffer m_buffer;
+    private final ScheduledExecutorService m_replayer;
+
+    // guarded by m_writeLock
+    private final Object m_writeLock = new Object();
+    private long m_nextSequence;
+    private volatile long m_baseSequence;
+    private int m_writePosition;
+    private volatile long m_writtenSequence;
+
+    // guarded by m_syncLock
+    private final Object m_syncLock = new Object();
+    private boolean m_syncing = false;
+    private volatile long m_durableSequence;
+    private long m_syncCount = 0;
+
+    // guarded by m_replayLock
+    private final Object m_replayLock = new Object();
+    private volatile long m_appliedSequence;
+    private boolean m_checkpointUncertain = false;
+
+    /**
+     * Open the journal file, recover the records in it and start replaying
+     *
+     * @param file                 - journal file, created if missing
+     * @param name                 - journal name, unique per ATM node
+     * @param capacityRecords      - records the file holds before it wraps
+     * @param target               - where records are replayed
+     * @param replayIntervalMillis - how often durable records are replayed
+     * @throws AtmDataException - the file could not be opened or the checkpoint read
+     */
+    public AccountJournal(Path file, String name, int capacityRecords, ReplayTarget target,
+                          long replayIntervalMillis) throws AtmDataException {
+        m_name = name;
+        m_target = target;
+        try {
+            m_channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            m_buffer = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacityRecords * RECORD_SIZE);
+        } catch (IOException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        recover(target.getCheckpoint(name));
+
+        m_replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "atm-journal-replay-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_replayer.scheduleWithFixedDelay(this::replayQuietly, 0, replayIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record a balance change and wait until it is on disk
+     *
+     * @param accountId - account to change
+     * @param amount    - amount to add in minor units, negative to subtract
+     * @return - sequence number of the record
+     * @throws AtmDataException - the record could not be made durable
+     */
+    public long append(long accountId, long amount) throws AtmDataException {
+        long sequence;
+        synchronized (m_writeLock) {
+            if (m_writePosition + RECORD_SIZE > m_buffer.capacity()) {
+                wrap();
+            }
+            sequence = m_nextSequence++;
+            writeRecord(m_writePosition, sequence, accountId, amount, System.currentTimeMillis());
+            m_writePosition += RECORD_SIZE;
+            m_writtenSequence = sequence;
+        }
+        syncTo(sequence);
+        return sequence;
+    }
+
+    /**
+     * @return - highest sequence known to be on disk
+     */
+    public long getDurableSequence() {
+        return m_durableSequence;
+    }
+
+    /**
+     * @return - highest sequence applied to the replay target
+     */
+    public long getAppliedSequence() {
+        return m_appliedSequence;
+    }
+
+    /**
+     * @return - number of fsyncs so far; lower than the number of appends when commits are grouped
+     */
+    public long getSyncCount() {
+        synchronized (m_syncLock) {
+            return m_syncCount;
+        }
+    }
+
+    /**
+     * Apply every durable record that has not been applied yet
+     *
+     * @throws AtmDataException - the target rejected the batch; it is retried on the next replay
+     */
+    public void replayNow() throws AtmDataException {
+        synchronized (m_replayLock) {
+            if (m_checkpointUncertain) {
+                // the failed apply may have committed before its acknowledgement was lost
+                m_appliedSequence = Math.max(m_appliedSequence, m_target.getCheckpoint(m_name));
+                m_checkpointUncertain = false;
+            }
+            long last = m_durableSequence;
+            long first = m_appliedSequence + 1;
+            if (last < first) return;
+
+            // durable records are not overwritten until wrap() has applied them
+            LongLongHashMap deltas = new LongLongHashMap();
+            long base = m_baseSequence;
+            for (long sequence = first; sequence <= last; sequence++) {
+                int position = (int) (sequence - base) * RECORD_SIZE;
+                deltas.addTo(m_buffer.getLong(position + 8), m_buffer.getLong(position + 16));
+            }
+            try {
+                m_target.apply(m_name, deltas, first, last);
+            } catch (AtmDataException | RuntimeException ex) {
+                m_checkpointUncertain = true;
+                throw ex;
+            }
+            m_appliedSequence = last;
+        }
+    }
+
+    /**
+     * Stop the replay thread after a final replay and release the file.
+     * Records that could not be replayed are picked up when the journal is reopened.
+     */
+    @Override
+    public void close() {
+        m_replayer.shutdown();
+        try {
+            m_replayer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        replayQuietly();
+        try {
+            m_channel.close();
+        } catch (IOException ex) {
+            // the mapped data was already forced by append
+        }
+    }
+
+    private void replayQuietly() {
+        try {
+            replayNow();
+        } catch (AtmDataException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Journal " + m_name + " replay failed, will retry", ex);
+        }
+    }
+
+    /**
+     * Group commit. One thread at a time forces the file, covering every record
+     * written so far; threads whose record that force covered return without forcing.
+     */
+    private void syncTo(long sequence) throws AtmDataException {
+        while (true) {
+            long target;
+            synchronized (m_syncLock) {
+                while (m_syncing && m_durableSequence < sequence) {
+                    try {
+                        m_syncLock.wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new AtmDataException(ex);
+                    }
+                }
+                if (m_durableSequence >= sequence) return;
+
+                m_syncing = true;
+                target = m_writtenSequence;
+            }
+
+            // force without the lock so other threads keep appending meanwhile
+            boolean forced = false;
+            try {
+                m_buffer.force();
+                forced = true;
+            } finally {
+                synchronized (m_syncLock) {
+                    if (forced) {
+                        m_durableSequence = Math.max(m_durableSequence, target);
+                        m_syncCount++;
+                    }
+                    m_syncing = false;
+                    m_syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Caller holds m_writeLock. Applies every record, then reuses the file from the start.
+     *
+     * @throws AtmDataException - the records could not be applied; the file is not reused
+     */
+    private void wrap() throws AtmDataException {
+        long last = m_writtenSequence;
+        syncTo(last);
+        if (m_appliedSequence < last) {
+            replayNow();
+        }
+        m_baseSequence = m_nextSequence;
+        m_writePosition = 0;
+    }
+
+    private void writeRecord(int position, long sequence, long accountId, long amount, long timestamp) {
+        m_buffer.putLong(position, sequence);
+        m_buffer.putLong(position + 8, accountId);
+        m_buffer.putLong(position + 16, amount);
+        m_buffer.putLong(position + 24, timestamp);
+        m_buffer.putInt(position + 32, checksum(position));
+        m_buffer.putInt(position + 36, RECORD_MAGIC);
+    }
+
+    private int checksum(int position) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < 32; i++) {
+            crc.update(m_buffer.get(position + i));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Find the run of valid, consecutive records at the start of the file. After a
+     * wrap the file holds newer records followed by stale older ones; the sequence
+     * break marks the end.
+     */
+    private void recover(long checkpoint) {
+        long previous = -1;
+        int position = 0;
+        while (position + RECORD_SIZE <= m_buffer.capacity()) {
+            long sequence = m_buffer.getLong(position);
+            boolean valid = m_buffer.getInt(position + 36) == RECORD_MAGIC
+                    && m_buffer.getInt(position + 32) == checksum(position)
+                    && (previous < 0 || sequence == previous + 1);
+            if (!valid) break;
+
+            if (previous < 0) m_baseSequence = sequence;
+            previous = sequence;
+            position += RECORD_SIZE;
+        }
+
+        if (previous < checkpoint) {
+            // empty journal, or one the database is already past (say a restored file):
+            // everything in it is applied, so start the file over after the checkpoint
+            // to keep record positions in step with sequences
+            if (previous >= 0) {
+                LOGGER.log(Level.WARNING, "Journal {0} ends at {1} but the database is at {2}, restarting it",
+                        new Object[]{m_name, previous, checkpoint});
+            }
+            m_baseSequence = checkpoint + 1;
+            previous = checkpoint;
+            position = 0;
+        }
+        m_nextSequence = previous + 1;
+        m_writePosition = position;
+        m_writtenSequence = previous;
+        m_durableSequence = previous;
+        m_appliedSequence = Math.max(checkpoint, m_baseSequence - 1);
+
+        if (m_writtenSequence > m_appliedSequence) {
+            LOGGER.log(Level.INFO, "Journal {0} recovered {1} records to replay",
+                    new Object[]{m_name, m_writtenSequence - m_appliedSequence});
+        }
+    }
+}
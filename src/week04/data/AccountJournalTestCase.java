@@ -0,0 +1,299 @@
+package week04.data;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import test.AbstractTestCase;
+import week04.util.LongLongHashMap;
+
+/**
+ * Tests the AccountJournal class against an in memory replay target
+ *
+ */
+public class AccountJournalTestCase extends AbstractTestCase
+{
+	private static final int THREADS = 16;
+	private static final int APPENDS_PER_THREAD = 200;
+
+	public AccountJournalTestCase()
+	{
+		super("AccountJournalTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testGroupCommit();
+			boolean test2 = testRecovery();
+			boolean test3 = testWrap();
+			boolean test4 = testCheckpointAhead();
+			boolean test5 = testLostAcknowledgement();
+
+			result = test1 && test2 && test3 && test4 && test5;
+		}
+		catch(Exception ex)
+		{
+			trace("TestAccountJournal: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testGroupCommit() throws Exception
+	{
+		trace(String.format("Testing %d threads appending to the journal", THREADS));
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-journal", ".dat");
+		final InMemoryTarget target = new InMemoryTarget();
+		final AccountJournal journal = new AccountJournal(file, "test", THREADS * APPENDS_PER_THREAD, target, 5);
+
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++)
+		{
+			final long accountId = t % 4 + 1;
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for(int i = 0; i < APPENDS_PER_THREAD; i++)
+						{
+							journal.append(accountId, 100);
+						}
+					}
+					catch(AtmDataException ex)
+					{
+						trace(" *** Append failed: " + ex.getMessage());
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		journal.close();
+
+		int appends = THREADS * APPENDS_PER_THREAD;
+		trace(String.format("%d appends made durable with %d syncs in %.1f ms",
+				appends, journal.getSyncCount(), elapsed / 1e6));
+
+		if( journal.getDurableSequence() != appends )
+		{
+			trace(" *** Durable sequence " + journal.getDurableSequence() + ", expected " + appends);
+			result = false;
+		}
+		if( target.total() != appends * 100L || target.m_checkpoint != appends )
+		{
+			trace(" *** Replayed total " + target.total() + " up to " + target.m_checkpoint);
+			result = false;
+		}
+		if( journal.getSyncCount() >= appends )
+		{
+			trace(" *** Appends were not grouped into shared syncs");
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private boolean testRecovery() throws Exception
+	{
+		trace("Testing replay after a restart");
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-journal", ".dat");
+		InMemoryTarget target = new InMemoryTarget();
+		target.m_failing = true;
+
+		// the database is down, so nothing is replayed before the journal closes
+		AccountJournal journal = new AccountJournal(file, "test", 100, target, 1000);
+		for(int i = 0; i < 10; i++)
+		{
+			journal.append(7, 250);
+		}
+		journal.close();
+		if( target.total() != 0 )
+		{
+			trace(" *** Records were applied by a failing target");
+			result = false;
+		}
+
+		target.m_failing = false;
+		journal = new AccountJournal(file, "test", 100, target, 1000);
+		journal.replayNow();
+		journal.append(7, 500);
+		journal.close();
+
+		// reopening again must not apply anything twice
+		journal = new AccountJournal(file, "test", 100, target, 1000);
+		journal.replayNow();
+		journal.close();
+
+		if( target.m_balances.get(7, 0) != 3000 || target.m_checkpoint != 11 )
+		{
+			trace(" *** Recovered balance " + target.m_balances.get(7, 0) + " up to " + target.m_checkpoint
+					+ ", expected 3000 up to 11");
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private boolean testWrap() throws Exception
+	{
+		trace("Testing a journal that fills up and wraps");
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-journal", ".dat");
+		InMemoryTarget target = new InMemoryTarget();
+		AccountJournal journal = new AccountJournal(file, "test", 8, target, 1000);
+		for(int i = 0; i < 20; i++)
+		{
+			journal.append(3, 1);
+		}
+		journal.close();
+
+		journal = new AccountJournal(file, "test", 8, target, 1000);
+		long next = journal.append(3, 1);
+		journal.close();
+
+		if( target.m_balances.get(3, 0) != 21 || next != 21 )
+		{
+			trace(" *** Balance " + target.m_balances.get(3, 0) + " after wrapping, next sequence " + next);
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private boolean testCheckpointAhead() throws Exception
+	{
+		trace("Testing a journal the database checkpoint is already past");
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-journal", ".dat");
+		InMemoryTarget target = new InMemoryTarget();
+		AccountJournal journal = new AccountJournal(file, "test", 100, target, 1000);
+		for(int i = 0; i < 5; i++)
+		{
+			journal.append(4, 1);
+		}
+		journal.close();
+
+		// the database went on to sequence 50, from a journal file that was since replaced by this older one
+		target.m_checkpoint = 50;
+		journal = new AccountJournal(file, "test", 100, target, 1000);
+		long first = journal.append(4, 10);
+		journal.append(4, 10);
+		journal.replayNow();
+		journal.close();
+
+		journal = new AccountJournal(file, "test", 100, target, 1000);
+		long next = journal.append(4, 100);
+		journal.close();
+
+		if( first != 51 || next != 53 || target.m_balances.get(4, 0) != 125 || target.m_checkpoint != 53 )
+		{
+			trace(" *** Appended " + first + " and " + next + ", balance " + target.m_balances.get(4, 0) + " up to "
+					+ target.m_checkpoint + ", expected 51 and 53, 125 up to 53");
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private boolean testLostAcknowledgement() throws Exception
+	{
+		trace("Testing a replay whose commit went through but reported a failure");
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-journal", ".dat");
+		InMemoryTarget target = new InMemoryTarget();
+		AccountJournal journal = new AccountJournal(file, "test", 100, target, 1000);
+		for(int i = 0; i < 3; i++)
+		{
+			journal.append(6, 10);
+		}
+		target.m_losingAcknowledgements = true;
+		try
+		{
+			journal.replayNow();
+		}
+		catch(AtmDataException ex)
+		{
+			// expected, the batch was applied all the same
+		}
+		target.m_losingAcknowledgements = false;
+		journal.append(6, 10);
+		journal.replayNow();
+		journal.close();
+
+		if( target.m_balances.get(6, 0) != 40 || target.m_checkpoint != 4 )
+		{
+			trace(" *** Balance " + target.m_balances.get(6, 0) + " up to " + target.m_checkpoint
+					+ ", expected 40 up to 4");
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	/** Balances and checkpoint kept in memory; can be told to fail like an unreachable database */
+	private static class InMemoryTarget implements AccountJournal.ReplayTarget
+	{
+		private final LongLongHashMap m_balances = new LongLongHashMap();
+		private volatile long m_checkpoint = 0;
+		private volatile boolean m_failing = false;
+		private volatile boolean m_losingAcknowledgements = false;
+
+		@Override
+		public synchronized long getCheckpoint(String journalName)
+		{
+			return m_checkpoint;
+		}
+
+		@Override
+		public synchronized void apply(String journalName, LongLongHashMap deltas, long firstSequence,
+				long lastSequence) throws AtmDataException
+		{
+			if( m_failing )
+			{
+				throw new AtmDataException("Database unavailable");
+			}
+			long[] keys = deltas.keys();
+			long[] values = deltas.values();
+			for(int i = 0; i < keys.length; i++)
+			{
+				m_balances.addTo(keys[i], values[i]);
+			}
+			m_checkpoint = lastSequence;
+			if( m_losingAcknowledgements )
+			{
+				throw new AtmDataException("Connection lost while committing");
+			}
+		}
+
+		synchronized long total()
+		{
+			long total = 0;
+			for(long value : m_balances.values())
+			{
+				total += value;
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package week04.data;
+
+import week04.app.Account;
+import week04.app.User;
+import week04.app.Money;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps rows holding id, user_id, name and balance columns, joined with the owner's
+ * first_name and last_name, to accounts with their owner. Create one per result
+ * set; the column indexes are looked up in the constructor.
+ *
+ * Owners are shared through an identity scope, so accounts of the same customer
+ * reference one User. With lazy owners only user_id is read; owners the scope does
+ * not hold yet are loaded in a batch on the first Account.getUser().
+ */
+public class AccountRowMapper implements RowMapper<Account> {
+
+    private final int m_id;
+    private final int m_name;
+    private final int m_balance;
+    private final int m_userId;
+    private final IdentityScope m_scope;
+    private final UserRowMapper m_owner;
+
+    /**
+     * @param resultSet - result set with the account and owner columns
+     * @param scope     - identity scope owning the users
+     * @throws SQLException - a column is missing
+     */
+    public AccountRowMapper(ResultSet resultSet, IdentityScope scope) throws SQLException {
+        this(resultSet, scope, false);
+    }
+
+    /**
+     * @param resultSet  - result set with the account columns, and the owner's names unless lazyOwners
+     * @param scope      - identity scope owning the users; loads the lazy owners
+     * @param lazyOwners - leave owners the scope does not hold for Account.getUser() to load
+     * @throws SQLException - a column is missing
+     */
+    public AccountRowMapper(ResultSet resultSet, IdentityScope scope, boolean lazyOwners) throws SQLException {
+        m_id = resultSet.findColumn("id");
+        m_name = resultSet.findColumn("name");
+        m_balance = resultSet.findColumn("balance");
+        m_userId = resultSet.findColumn("user_id");
+        m_scope = scope;
+        m_owner = lazyOwners ? null : new UserRowMapper(resultSet, "user_id", scope);
+    }
+
+    @Override
+    public Account map(ResultSet resultSet) throws SQLException {
+        Account account;
+        if (m_owner != null) {
+            account = new Account(resultSet.getLong(m_id), m_owner.map(resultSet), resultSet.getString(m_name), 0.0);
+        } else {
+            long userId = resultSet.getLong(m_userId);
+            User owner = m_scope.get(userId);
+            account = owner != null
+                    ? new Account(resultSet.getLong(m_id), owner, resultSet.getString(m_name), 0.0)
+                    : new Account(resultSet.getLong(m_id), userId, m_scope.defer(userId), resultSet.getString(m_name), 0.0);
+        }
+        account.setBalanceMinor(Money.fromBigDecimal(resultSet.getBigDecimal(m_balance)));
+        return account;
+    }
+}
@@ -0,0 +1,197 @@
+package week04.data;
+
+import week04.app.Account;
+import week04.app.User;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Asynchronous facade over DataAccess. Every call runs on its own task and
+ * returns a CompletableFuture, so independent queries can run at the same time
+ * and be combined, e.g. a user lookup and that user's accounts.
+ *
+ * On a JVM with virtual threads each call gets its own virtual thread and a
+ * semaphore bounds how many run against the database at once. On older JVMs a
+ * fixed pool of that many platform threads is used instead.
+ *
+ * Failures, including calls made after close(), never throw from the call
+ * itself; they complete the returned future exceptionally, usually with an
+ * AtmDataException.
+ */
+public class AsyncDataAccess implements AutoCloseable {
+
+    private final DataAccess m_dataAccess;
+    private final ExecutorService m_executor;
+    private final Semaphore m_permits;
+
+    /** A DataAccess call to run asynchronously */
+    private interface DataCall<T> {
+        T call() throws AtmDataException;
+    }
+
+    /**
+     * Allow as many concurrent calls as the connection pool has connections
+     *
+     * @param dataAccess - data access to run calls against
+     */
+    public AsyncDataAccess(DataAccess dataAccess) {
+        this(dataAccess, DataAccess.getPoolSize());
+    }
+
+    /**
+     * @param dataAccess    - data access to run calls against
+     * @param maxConcurrent - maximum number of calls running at once
+     */
+    public AsyncDataAccess(DataAccess dataAccess, int maxConcurrent) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be at least 1");
+
+        m_dataAccess = dataAccess;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            m_executor = virtual;
+            m_permits = new Semaphore(maxConcurrent);
+        } else {
+            m_executor = Executors.newFixedThreadPool(maxConcurrent, runnable -> {
+                Thread thread = new Thread(runnable, "atm-data-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+            m_permits = null;
+        }
+    }
+
+    /**
+     * @return - true if calls run on virtual threads
+     */
+    public boolean isUsingVirtualThreads() {
+        return m_permits != null;
+    }
+
+    /**
+     * Get a single user object by id from the database
+     *
+     * @param id - user id to be used for query
+     * @return - future of the user found in database
+     */
+    public CompletableFuture<User> getUserByIdAsync(long id) {
+        return submit(() -> m_dataAccess.getUserById(id));
+    }
+
+    /**
+     * Save the given user object in the database, inserting it if it has no id
+     *
+     * @param user - user to be saved or updated
+     * @return - future of the user that is saved or updated, carrying the stored id
+     */
+    public CompletableFuture<User> saveUserAsync(User user) {
+        return submit(() -> m_dataAccess.saveUser(user));
+    }
+
+    /**
+     * Delete the given user object from the database
+     *
+     * @param user - user object to be deleted
+     * @return - future completed once the user is deleted
+     */
+    public CompletableFuture<Void> removeUserAsync(User user) {
+        return submit(() -> {
+            m_dataAccess.removeUser(user);
+            return null;
+        });
+    }
+
+    /**
+     * Get a list of all users in the database
+     *
+     * @return - future of the list of user objects
+     */
+    public CompletableFuture<List<User>> getUsersAsync() {
+        return submit(m_dataAccess::getUsers);
+    }
+
+    /**
+     * Get a single account by id
+     *
+     * @param id - account id
+     * @return - future of the account found in database, null if there is none
+     */
+    public CompletableFuture<Account> getAccountByIdAsync(long id) {
+        return submit(() -> m_dataAccess.getAccountById(id));
+    }
+
+    /**
+     * Get the accounts owned by one user
+     *
+     * @param userId - owner id
+     * @return - future of the list of account objects, empty if the user has none
+     */
+    public CompletableFuture<List<Account>> getAccountsByUserIdAsync(long userId) {
+        return submit(() -> m_dataAccess.getAccountsByUserId(userId));
+    }
+
+    /**
+     * Save the given account, inserting it if it has no id
+     *
+     * @param account - account to be saved or updated
+     * @return - future of the account that is saved, carrying the stored id
+     */
+    public CompletableFuture<Account> saveAccountAsync(Account account) {
+        return submit(() -> m_dataAccess.saveAccount(account));
+    }
+
+    /**
+     * Stop accepting calls. Calls already submitted still complete; later calls
+     * return a future failed with an AtmDataException.
+     */
+    @Override
+    public void close() {
+        m_executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(DataCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            m_executor.execute(() -> run(call, future));
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(new AtmDataException("closed"));
+        }
+        return future;
+    }
+
+    private <T> void run(DataCall<T> call, CompletableFuture<T> future) {
+        boolean acquired = false;
+        try {
+            if (m_permits != null) {
+                m_permits.acquire();
+                acquired = true;
+            }
+            future.complete(call.call());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new AtmDataException(ex));
+        } catch (Throwable ex) {
+            future.completeExceptionally(ex);
+        } finally {
+            if (acquired) m_permits.release();
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() exists from Java 21; looked up
+     * reflectively so this class still runs on older JVMs.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package week04.data;
+
+import week04.util.LongLongHashMap;
+
+/**
+ * Applies summed balance changes to many accounts at once.
+ * DataAccess::applyBalanceDeltas is the database implementation.
+ */
+public interface BalanceDeltaWriter {
+
+    /**
+     * @param deltas - account id to the amount to add, in minor units
+     * @return - account id to the new balance in minor units; ids with no account are absent
+     * @throws AtmDataException - nothing was applied
+     */
+    LongLongHashMap applyBalanceDeltas(LongLongHashMap deltas) throws AtmDataException;
+}
@@ -0,0 +1,173 @@
+package week04.data;
+
+import week04.app.Money;
+import week04.util.LongLongHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrent balance changes and writes them in batches.
+ *
+ * Changes to the same account that arrive within the batching window are
+ * summed, so a burst of deposits to one hot account costs one UPDATE instead
+ * of one per deposit. A batch is written when the window closes or when it
+ * holds maxAccounts accounts, whichever comes first. While a batch is being
+ * written the next one fills up, so batches grow with the load.
+ *
+ * Each caller's future completes with the account balance after the whole
+ * batch it was part of was applied.
+ */
+public class BalanceUpdateCoalescer implements AutoCloseable {
+
+    private final BalanceDeltaWriter m_writer;
+    private final long m_windowMillis;
+    private final int m_maxAccounts;
+    private final ScheduledExecutorService m_flusher;
+
+    private final Object m_lock = new Object();
+    private Map<Long, Pending> m_pending = new HashMap<>();
+    private boolean m_flushScheduled = false;
+    // window timer of the pending batch, cancelled if the batch is written early
+    private ScheduledFuture<?> m_windowTimer = null;
+    private boolean m_closed = false;
+
+    /** Summed change and waiting callers for one account */
+    private static final class Pending {
+        private long m_delta;
+        private final List<CompletableFuture<Long>> m_waiters = new ArrayList<>(2);
+    }
+
+    /**
+     * @param writer       - where batches are applied, e.g. DataAccess::applyBalanceDeltas
+     * @param windowMillis - how long a change may wait for others to join its batch
+     * @param maxAccounts  - accounts per batch before it is written without waiting
+     */
+    public BalanceUpdateCoalescer(BalanceDeltaWriter writer, long windowMillis, int maxAccounts) {
+        if (maxAccounts < 1) throw new IllegalArgumentException("maxAccounts must be at least 1");
+
+        m_writer = writer;
+        m_windowMillis = windowMillis;
+        m_maxAccounts = maxAccounts;
+        m_flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "atm-balance-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a balance change
+     *
+     * @param accountId - account to change
+     * @param amount    - amount to add in minor units, negative to subtract
+     * @return - future completing with the new balance in minor units, or failing
+     * with AtmDataException if the account does not exist or the write failed
+     */
+    public CompletableFuture<Long> addToBalance(long accountId, long amount) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+
+        synchronized (m_lock) {
+            if (m_closed) {
+                future.completeExceptionally(new AtmDataException("Balance coalescer is closed"));
+                return future;
+            }
+
+            Pending pending = m_pending.get(accountId);
+            if (pending == null) {
+                pending = new Pending();
+                m_pending.put(accountId, pending);
+            }
+            try {
+                pending.m_delta = Money.add(pending.m_delta, amount);
+            } catch (ArithmeticException ex) {
+                future.completeExceptionally(ex);
+                return future;
+            }
+            pending.m_waiters.add(future);
+
+            if (m_pending.size() >= m_maxAccounts) {
+                m_flushScheduled = true;
+                m_flusher.execute(this::flush);
+            } else if (!m_flushScheduled) {
+                m_flushScheduled = true;
+                m_windowTimer = m_flusher.schedule(this::flush, m_windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Write everything queued so far and stop accepting changes. Closing again does nothing.
+     */
+    @Override
+    public void close() {
+        synchronized (m_lock) {
+            if (m_closed) return;
+            m_closed = true;
+        }
+        m_flusher.execute(this::flush);
+        m_flusher.shutdown();
+        try {
+            m_flusher.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Runs on the flusher thread only, so batches are written one at a time */
+    private void flush() {
+        Map<Long, Pending> batch;
+        synchronized (m_lock) {
+            if (m_windowTimer != null) {
+                // a flush that runs before the window closes must not leave the timer to cut the next window short
+                m_windowTimer.cancel(false);
+                m_windowTimer = null;
+            }
+            batch = m_pending;
+            if (batch.isEmpty()) {
+                m_flushScheduled = false;
+                return;
+            }
+            m_pending = new HashMap<>();
+            m_flushScheduled = false;
+        }
+
+        LongLongHashMap deltas = new LongLongHashMap(batch.size());
+        for (Map.Entry<Long, Pending> entry : batch.entrySet()) {
+            deltas.put(entry.getKey(), entry.getValue().m_delta);
+        }
+
+        try {
+            LongLongHashMap balances = m_writer.applyBalanceDeltas(deltas);
+            for (Map.Entry<Long, Pending> entry : batch.entrySet()) {
+                long id = entry.getKey();
+                if (balances.containsKey(id)) {
+                    Long balance = balances.get(id, 0);
+                    for (CompletableFuture<Long> waiter : entry.getValue().m_waiters) {
+                        waiter.complete(balance);
+                    }
+                } else {
+                    fail(entry.getValue(), new AtmDataException("No account with id " + id));
+                }
+            }
+        } catch (AtmDataException | RuntimeException ex) {
+            for (Pending pending : batch.values()) {
+                fail(pending, ex);
+            }
+        }
+    }
+
+    private static void fail(Pending pending, Exception cause) {
+        for (CompletableFuture<Long> waiter : pending.m_waiters) {
+            waiter.completeExceptionally(cause);
+        }
+    }
+}
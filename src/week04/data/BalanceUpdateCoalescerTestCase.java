@@ -0,0 +1,188 @@
+package week04.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.AbstractTestCase;
+import week04.util.LongLongHashMap;
+
+/**
+ * Tests the BalanceUpdateCoalescer class against an in memory balance table
+ *
+ */
+public class BalanceUpdateCoalescerTestCase extends AbstractTestCase
+{
+	private static final int THREADS = 16;
+	private static final int DEPOSITS_PER_THREAD = 500;
+	private static final long[] HOT_ACCOUNTS = { 1, 2, 3 };
+
+	public BalanceUpdateCoalescerTestCase()
+	{
+		super("BalanceUpdateCoalescerTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testHotAccounts();
+			boolean test2 = testMissingAccount();
+			boolean test3 = testWindowAfterEarlyFlush();
+
+			result = test1 && test2 && test3;
+		}
+		catch(Exception ex)
+		{
+			trace("TestBalanceUpdateCoalescer: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testHotAccounts() throws Exception
+	{
+		trace(String.format("Testing %d threads depositing to %d hot accounts", THREADS, HOT_ACCOUNTS.length));
+		boolean result = true;
+
+		final InMemoryBalances balances = new InMemoryBalances();
+		final BalanceUpdateCoalescer coalescer = new BalanceUpdateCoalescer(balances, 2, 100);
+		final List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++)
+		{
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					List<CompletableFuture<Long>> own = new ArrayList<CompletableFuture<Long>>();
+					for(int i = 0; i < DEPOSITS_PER_THREAD; i++)
+					{
+						own.add(coalescer.addToBalance(HOT_ACCOUNTS[i % HOT_ACCOUNTS.length], 100));
+					}
+					synchronized(futures)
+					{
+						futures.addAll(own);
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		long elapsed = System.nanoTime() - start;
+		coalescer.close();
+
+		int deposits = THREADS * DEPOSITS_PER_THREAD;
+		trace(String.format("%d deposits applied with %d batch writes in %.1f ms",
+				deposits, balances.m_writes.get(), elapsed / 1e6));
+
+		long total = 0;
+		for(long id : HOT_ACCOUNTS)
+		{
+			total += balances.m_balances.get(id, 0);
+		}
+		if( total != deposits * 100L )
+		{
+			trace(" *** Deposits lost: total " + total);
+			result = false;
+		}
+		if( balances.m_writes.get() >= deposits / 10 )
+		{
+			trace(" *** Deposits were not coalesced");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testMissingAccount() throws Exception
+	{
+		trace("Testing a change to a missing account");
+		BalanceUpdateCoalescer coalescer = new BalanceUpdateCoalescer(new InMemoryBalances(), 1, 10);
+		CompletableFuture<Long> future = coalescer.addToBalance(99, 100);
+		coalescer.close();
+		coalescer.close();
+
+		if( !future.isCompletedExceptionally() )
+		{
+			trace(" *** Change to a missing account succeeded");
+			return false;
+		}
+		return true;
+	}
+
+	private boolean testWindowAfterEarlyFlush() throws Exception
+	{
+		trace("Testing the window of a batch that follows a full one");
+		BalanceUpdateCoalescer coalescer = new BalanceUpdateCoalescer(new InMemoryBalances(), 300, 2);
+
+		// a full batch is written at once; its window timer must not fire into the next batch
+		coalescer.addToBalance(1, 100);
+		coalescer.addToBalance(2, 100).get();
+		Thread.sleep(200);
+
+		long start = System.nanoTime();
+		coalescer.addToBalance(3, 100).get();
+		long waitedMillis = (System.nanoTime() - start) / 1000000;
+		coalescer.close();
+
+		trace(String.format("Change waited %d ms for a 300 ms window", waitedMillis));
+		if( waitedMillis < 250 )
+		{
+			trace(" *** The earlier batch's timer closed the window early");
+			return false;
+		}
+		return true;
+	}
+
+	/** Balance table holding accounts 1 to 3, with a short delay per write */
+	private static class InMemoryBalances implements BalanceDeltaWriter
+	{
+		private final LongLongHashMap m_balances = new LongLongHashMap();
+		private final AtomicInteger m_writes = new AtomicInteger();
+
+		InMemoryBalances()
+		{
+			for(long id : HOT_ACCOUNTS)
+			{
+				m_balances.put(id, 0);
+			}
+		}
+
+		@Override
+		public synchronized LongLongHashMap applyBalanceDeltas(LongLongHashMap deltas) throws AtmDataException
+		{
+			m_writes.incrementAndGet();
+			try
+			{
+				Thread.sleep(1);
+			}
+			catch(InterruptedException ex)
+			{
+				throw new AtmDataException(ex);
+			}
+
+			LongLongHashMap result = new LongLongHashMap();
+			for(long id : deltas.keys())
+			{
+				if( m_balances.containsKey(id) )
+				{
+					result.put(id, m_balances.addTo(id, deltas.get(id, 0)));
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package week04.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk write. Rows that were written are listed in getSucceeded(),
+ * rows that were rejected are listed in getFailures() with the reason.
+ *
+ * @param <T> - User or Account
+ */
+public class BatchResult<T> {
+
+    private final List<T> m_succeeded = new ArrayList<>();
+    private final List<Failure<T>> m_failures = new ArrayList<>();
+
+    void addSuccess(T item) {
+        m_succeeded.add(item);
+    }
+
+    void addFailure(int index, T item, Exception cause) {
+        m_failures.add(new Failure<>(index, item, cause));
+    }
+
+    /**
+     * @return - written rows, in input order. Saved rows carry their stored id.
+     */
+    public List<T> getSucceeded() {
+        return Collections.unmodifiableList(m_succeeded);
+    }
+
+    /**
+     * @return - rejected rows, in input order
+     */
+    public List<Failure<T>> getFailures() {
+        return Collections.unmodifiableList(m_failures);
+    }
+
+    /**
+     * @return - true if every row was written
+     */
+    public boolean isComplete() {
+        return m_failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("succeeded=%d failed=%d", m_succeeded.size(), m_failures.size());
+    }
+
+    /**
+     * A row that could not be written
+     *
+     * @param <T> - User or Account
+     */
+    public static final class Failure<T> {
+        private final int m_index;
+        private final T m_item;
+        private final Exception m_cause;
+
+        private Failure(int index, T item, Exception cause) {
+            m_index = index;
+            m_item = item;
+            m_cause = cause;
+        }
+
+        /**
+         * @return - position of the row in the input collection
+         */
+        public int getIndex() {
+            return m_index;
+        }
+
+        public T getItem() {
+            return m_item;
+        }
+
+        public Exception getCause() {
+            return m_cause;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %s: %s", m_index, m_item, m_cause.getMessage());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package week04.data;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rows changed since a point in time, as returned by getUsersModifiedSince and
+ * getAccountsModifiedSince. Pass getLatestUpdate() to the next call to continue
+ * from where this one ended.
+ *
+ * @param <T> - User or Account
+ */
+public class ChangeSet<T> {
+
+    private final List<T> m_changed;
+    private final Instant m_latestUpdate;
+
+    ChangeSet(List<T> changed, Instant latestUpdate) {
+        m_changed = Collections.unmodifiableList(changed);
+        m_latestUpdate = latestUpdate;
+    }
+
+    /**
+     * @return - changed rows, oldest change first
+     */
+    public List<T> getChanged() {
+        return m_changed;
+    }
+
+    /**
+     * @return - last_update of the newest change, null if nothing changed
+     */
+    public Instant getLatestUpdate() {
+        return m_latestUpdate;
+    }
+
+    public boolean isEmpty() {
+        return m_changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeSet{changed=" + m_changed.size() + ", latestUpdate=" + m_latestUpdate + '}';
+    }
+}
@@ -0,0 +1,20 @@
+package week04.data;
+
+import java.time.Instant;
+
+/**
+ * Reports rows changed since a point in time.
+ * DataAccess::getUsersModifiedSince and DataAccess::getAccountsModifiedSince are
+ * the database implementations.
+ *
+ * @param <T> - User or Account
+ */
+public interface ChangeSource<T> {
+
+    /**
+     * @param since - earliest change to include
+     * @return - rows changed at or after since, oldest change first
+     * @throws AtmDataException
+     */
+    ChangeSet<T> getModifiedSince(Instant since) throws AtmDataException;
+}
@@ -0,0 +1,416 @@
+package week04.data;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size pool of JDBC connections used by DataAccess.
+ *
+ * At most poolSize connections are leased at once. Callers that cannot get a
+ * connection within the lease timeout get an AtmDataException. Connections are
+ * validated when borrowed and closed once they sit idle longer than the idle timeout.
+ * Each pooled connection keeps its own prepared statements, so a statement is only
+ * ever used by the thread holding the lease.
+ */
+public class ConnectionPool {
+
+    private final String m_url;
+    private final String m_user;
+    private final String m_password;
+    private final int m_poolSize;
+    private final long m_leaseTimeoutMillis;
+    private final long m_idleTimeoutMillis;
+
+    private final Semaphore m_permits;
+    private final Deque<PooledConnection> m_idle = new ArrayDeque<>();
+    private volatile boolean m_closed = false;
+
+    private final AtomicLong m_leaseCount = new AtomicLong();
+    private final AtomicLong m_timeoutCount = new AtomicLong();
+    private final AtomicLong m_totalWaitNanos = new AtomicLong();
+    private final AtomicLong m_maxWaitNanos = new AtomicLong();
+    private final AtomicLong m_createdCount = new AtomicLong();
+    private final AtomicLong m_evictedCount = new AtomicLong();
+
+    /** Seconds passed to Connection.isValid when a connection is borrowed */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * Create a pool. Connections are opened lazily as they are needed.
+     *
+     * @param url                - JDBC url
+     * @param user               - database username
+     * @param password           - database password
+     * @param poolSize           - maximum number of connections
+     * @param leaseTimeoutMillis - how long lease() waits for a free connection
+     * @param idleTimeoutMillis  - idle connections older than this are closed
+     */
+    public ConnectionPool(String url, String user, String password, int poolSize,
+                          long leaseTimeoutMillis, long idleTimeoutMillis) {
+        if (poolSize < 1) throw new IllegalArgumentException("poolSize must be at least 1");
+
+        m_url = url;
+        m_user = user;
+        m_password = password;
+        m_poolSize = poolSize;
+        m_leaseTimeoutMillis = leaseTimeoutMillis;
+        m_idleTimeoutMillis = idleTimeoutMillis;
+        m_permits = new Semaphore(poolSize, true);
+    }
+
+    /**
+     * Lease a connection from the pool. The caller must close() the returned
+     * PooledConnection to hand it back.
+     *
+     * @return - a validated connection
+     * @throws AtmDataException - pool closed, lease timed out or the connection could not be opened
+     */
+    public PooledConnection lease() throws AtmDataException {
+        if (m_closed) throw new AtmDataException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        try {
+            if (!m_permits.tryAcquire(m_leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                m_timeoutCount.incrementAndGet();
+                throw new AtmDataException("Timed out after " + m_leaseTimeoutMillis
+                        + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AtmDataException(ex);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(m_url, m_user, m_password));
+                m_createdCount.incrementAndGet();
+            }
+            pooled.m_leased = true;
+            m_leaseCount.incrementAndGet();
+            return pooled;
+        } catch (SQLException | RuntimeException ex) {
+            m_permits.release();
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Lease a connection for code that wants a plain JDBC Connection. Closing the
+     * returned connection hands it back to the pool instead of closing it. Once
+     * closed it stays closed, even after the pool leases the connection to someone
+     * else: a second close() does nothing and other calls throw SQLException.
+     *
+     * @return - leased connection
+     * @throws AtmDataException
+     */
+    public Connection getConnection() throws AtmDataException {
+        final PooledConnection pooled = lease();
+        final AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (closed.compareAndSet(false, true)) pooled.close();
+                            return null;
+                        case "isClosed":
+                            return closed.get() || pooled.m_connection.isClosed();
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "pooled " + pooled.m_connection + (closed.get() ? " (closed)" : "");
+                        default:
+                            if (closed.get()) throw new SQLException("connection is closed");
+                            return invoke(pooled.m_connection, method, args);
+                    }
+                });
+    }
+
+    private static Object invoke(Connection target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Close all idle connections and refuse further leases. Connections that are
+     * still leased are closed when they are handed back.
+     */
+    public void close() {
+        m_closed = true;
+        synchronized (m_idle) {
+            for (PooledConnection pooled : m_idle) {
+                pooled.closePhysical();
+            }
+            m_idle.clear();
+        }
+    }
+
+    /**
+     * @return - true once close() has been called
+     */
+    public boolean isClosed() {
+        return m_closed;
+    }
+
+    /**
+     * @return - a snapshot of the pool counters
+     */
+    public Stats getStats() {
+        int idle;
+        synchronized (m_idle) {
+            idle = m_idle.size();
+        }
+        return new Stats(m_poolSize, m_poolSize - m_permits.availablePermits(), idle,
+                m_leaseCount.get(), m_timeoutCount.get(), m_totalWaitNanos.get(),
+                m_maxWaitNanos.get(), m_createdCount.get(), m_evictedCount.get());
+    }
+
+    /**
+     * Pop the most recently used idle connection, evicting expired and invalid ones.
+     * Most recently used first keeps a small hot set and lets the cold end expire.
+     */
+    private PooledConnection takeIdle() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            PooledConnection pooled;
+            synchronized (m_idle) {
+                evictExpired(now);
+                pooled = m_idle.pollFirst();
+            }
+            if (pooled == null) return null;
+            if (pooled.isUsable()) return pooled;
+
+            pooled.closePhysical();
+            m_evictedCount.incrementAndGet();
+        }
+    }
+
+    /** Caller holds the m_idle lock. The oldest idle connections are at the tail. */
+    private void evictExpired(long now) {
+        Iterator<PooledConnection> it = m_idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.m_lastUsed < m_idleTimeoutMillis) break;
+
+            it.remove();
+            pooled.closePhysical();
+            m_evictedCount.incrementAndGet();
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        pooled.m_lastUsed = System.currentTimeMillis();
+        boolean keep = !m_closed && pooled.resetForReuse();
+        if (keep) {
+            synchronized (m_idle) {
+                m_idle.addFirst(pooled);
+            }
+        } else {
+            pooled.closePhysical();
+        }
+        m_permits.release();
+    }
+
+    private void recordWait(long nanos) {
+        m_totalWaitNanos.addAndGet(nanos);
+        long max = m_maxWaitNanos.get();
+        while (nanos > max && !m_maxWaitNanos.compareAndSet(max, nanos)) {
+            max = m_maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * A leased connection together with the prepared statements created on it.
+     * Not thread safe; it belongs to one caller between lease() and close().
+     */
+    public final class PooledConnection implements AutoCloseable {
+
+        private final Connection m_connection;
+        private final Map<String, PreparedStatement> m_statements = new HashMap<>();
+        private volatile long m_lastUsed = System.currentTimeMillis();
+        private volatile boolean m_leased = false;
+
+        private PooledConnection(Connection connection) {
+            m_connection = connection;
+        }
+
+        /**
+         * @return - the underlying JDBC connection
+         */
+        public Connection getConnection() {
+            return m_connection;
+        }
+
+        /**
+         * Get the prepared statement for the given SQL, preparing it on first use
+         *
+         * @param sql - statement text
+         * @return - statement cached on this connection
+         * @throws SQLException
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = m_statements.get(sql);
+            if (statement == null) {
+                statement = m_connection.prepareStatement(sql);
+                m_statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Get a prepared statement that returns generated keys, preparing it on first use
+         *
+         * @param sql               - statement text
+         * @param autoGeneratedKeys - a java.sql.Statement generated keys constant
+         * @return - statement cached on this connection
+         * @throws SQLException
+         */
+        public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            PreparedStatement statement = m_statements.get(key);
+            if (statement == null) {
+                statement = m_connection.prepareStatement(sql, autoGeneratedKeys);
+                m_statements.put(key, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Hand the connection back to the pool
+         */
+        @Override
+        public void close() {
+            if (!m_leased) return;
+            m_leased = false;
+            release(this);
+        }
+
+        private boolean isUsable() {
+            try {
+                return m_connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException ex) {
+                return false;
+            }
+        }
+
+        /** Undo anything a caller left behind so the next lease starts clean */
+        private boolean resetForReuse() {
+            try {
+                if (m_connection.isClosed()) return false;
+                if (!m_connection.getAutoCommit()) {
+                    m_connection.rollback();
+                    m_connection.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException ex) {
+                return false;
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                m_connection.close();
+            } catch (SQLException ex) {
+                // nothing useful to do with a connection that fails to close
+            }
+        }
+    }
+
+    /**
+     * Point in time view of the pool, used to size it for peak load.
+     */
+    public static final class Stats {
+        private final int m_poolSize;
+        private final int m_active;
+        private final int m_idle;
+        private final long m_leases;
+        private final long m_timeouts;
+        private final long m_totalWaitNanos;
+        private final long m_maxWaitNanos;
+        private final long m_created;
+        private final long m_evicted;
+
+        private Stats(int poolSize, int active, int idle, long leases, long timeouts,
+                      long totalWaitNanos, long maxWaitNanos, long created, long evicted) {
+            m_poolSize = poolSize;
+            m_active = active;
+            m_idle = idle;
+            m_leases = leases;
+            m_timeouts = timeouts;
+            m_totalWaitNanos = totalWaitNanos;
+            m_maxWaitNanos = maxWaitNanos;
+            m_created = created;
+            m_evicted = evicted;
+        }
+
+        public int getPoolSize() {
+            return m_poolSize;
+        }
+
+        public int getActive() {
+            return m_active;
+        }
+
+        public int getIdle() {
+            return m_idle;
+        }
+
+        public long getLeases() {
+            return m_leases;
+        }
+
+        public long getTimeouts() {
+            return m_timeouts;
+        }
+
+        public long getTotalWaitNanos() {
+            return m_totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return m_maxWaitNanos;
+        }
+
+        /**
+         * @return - average time a lease waited for a connection, in microseconds
+         */
+        public double getAverageWaitMicros() {
+            return m_leases == 0 ? 0.0 : m_totalWaitNanos / 1000.0 / m_leases;
+        }
+
+        public long getCreated() {
+            return m_created;
+        }
+
+        public long getEvicted() {
+            return m_evicted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d active=%d idle=%d leases=%d timeouts=%d avgWait=%.1fus maxWait=%.1fus created=%d evicted=%d",
+                    m_poolSize, m_active, m_idle, m_leases, m_timeouts, getAverageWaitMicros(),
+                    m_maxWaitNanos / 1000.0, m_created, m_evicted);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package week04.data;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests the ConnectionPool class against an in memory JDBC driver
+ *
+ */
+public class ConnectionPoolTestCase extends AbstractTestCase
+{
+	private static final String URL = "jdbc:atmtest:pool";
+
+	public ConnectionPoolTestCase()
+	{
+		super("ConnectionPoolTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			DriverManager.registerDriver(InMemoryDriver.INSTANCE);
+			try
+			{
+				result = testStaleProxyClose();
+			}
+			finally
+			{
+				DriverManager.deregisterDriver(InMemoryDriver.INSTANCE);
+			}
+		}
+		catch(Exception ex)
+		{
+			trace("TestConnectionPool: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testStaleProxyClose() throws Exception
+	{
+		trace("Testing a connection closed twice after it was leased again");
+		boolean result = true;
+
+		ConnectionPool pool = new ConnectionPool(URL, "", "", 1, 100, 60000);
+		Connection stale = pool.getConnection();
+		stale.close();
+		Connection current = pool.getConnection();
+		stale.close();
+
+		if( pool.getStats().getActive() != 1 || !stale.isClosed() || current.isClosed() )
+		{
+			trace(" *** Second close of the stale connection released the current lease: " + pool.getStats());
+			result = false;
+		}
+		try
+		{
+			pool.lease().close();
+			trace(" *** Leased a second connection from a pool of one");
+			result = false;
+		}
+		catch(AtmDataException ex)
+		{
+			// expected, the only connection is still leased
+		}
+		try
+		{
+			stale.getAutoCommit();
+			trace(" *** Stale connection still reaches the physical connection");
+			result = false;
+		}
+		catch(SQLException ex)
+		{
+			// expected
+		}
+
+		current.close();
+		if( pool.getStats().getActive() != 0 || pool.getStats().getCreated() != 1 )
+		{
+			trace(" *** Connection not handed back once: " + pool.getStats());
+			result = false;
+		}
+		pool.close();
+		return result;
+	}
+
+	/** Hands out connections that answer just what the pool asks of them */
+	private static class InMemoryDriver implements Driver
+	{
+		static final InMemoryDriver INSTANCE = new InMemoryDriver();
+
+		@Override
+		public Connection connect(String url, Properties info)
+		{
+			if( !acceptsURL(url) )
+			{
+				return null;
+			}
+			boolean[] closed = { false };
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+						switch( method.getName() )
+						{
+							case "close":
+								closed[0] = true;
+								return null;
+							case "isClosed":
+								return closed[0];
+							case "isValid":
+								return !closed[0];
+							case "getAutoCommit":
+								return true;
+							case "toString":
+								return "in memory connection";
+							default:
+								throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+
+		@Override
+		public boolean acceptsURL(String url)
+		{
+			return url.startsWith("jdbc:atmtest:");
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+		{
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion()
+		{
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion()
+		{
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant()
+		{
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException
+		{
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+}
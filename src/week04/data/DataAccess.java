@@ -1,37 +1,131 @@
 package week04.data;
 
+import week04.app.Account;
+import week04.app.AccountColumnStore;
+import week04.app.Money;
 import week04.app.User;
+import week04.util.LongLongHashMap;
 
 import java.sql.Connection;
-import java.sql.Date;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * DataAccess Singleton class used to connect to and query local MySQL database.
  *
+ * Queries run on connections leased from a ConnectionPool, so concurrent callers
+ * each get their own connection and prepared statements. The instance is safe to
+ * share between threads and no lock is held while a query runs; callers only wait
+ * when every pooled connection is in use.
+ *
  * Created by Matthew on 9/11/2015.
  */
 public class DataAccess {
 
+    private static final String SELECT_ALL_USERS_SQL = "SELECT id, first_name, last_name FROM atm.user";
+    private static final String SELECT_USER_PAGE_SQL = "SELECT id, first_name, last_name FROM atm.user " +
+            "WHERE id > (?) ORDER BY id LIMIT ?";
+    private static final String SELECT_USERS_MODIFIED_SQL = "SELECT id, first_name, last_name, last_update " +
+            "FROM atm.user WHERE last_update >= (?) ORDER BY last_update";
+    // each query seeks on one of the (last_name, first_name) and (first_name, last_name) indexes
+    private static final String SELECT_USERS_BY_LAST_NAME_PREFIX_SQL = "SELECT id, first_name, last_name " +
+            "FROM atm.user WHERE last_name LIKE (?) ORDER BY last_name, first_name LIMIT ?";
+    private static final String SELECT_USERS_BY_FIRST_NAME_PREFIX_SQL = "SELECT id, first_name, last_name " +
+            "FROM atm.user WHERE first_name LIKE (?) AND last_name NOT LIKE (?) ORDER BY first_name, last_name LIMIT ?";
+    private static final String DELETE_USER_BY_ID_SQL = "DELETE FROM atm.user WHERE id = (?)";
+    private static final String SELECT_USER_SQL = "SELECT id, first_name, last_name FROM atm.user WHERE id = (?)";
+    // followed by one placeholder per id and a closing parenthesis
+    private static final String SELECT_USERS_BY_IDS_SQL = "SELECT id, first_name, last_name FROM atm.user WHERE id IN (";
+    // LAST_INSERT_ID(id) makes the generated keys report the existing id when the row is updated
+    private static final String UPSERT_USER_SQL = "INSERT INTO atm.user (id, first_name, last_name, last_update) " +
+            "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id), " +
+            "first_name = VALUES(first_name), last_name = VALUES(last_name), last_update = VALUES(last_update)";
+
+    // accounts are always read together with their owner in one query
+    private static final String SELECT_ACCOUNTS_SQL = "SELECT a.id, a.user_id, a.name, a.balance, " +
+            "u.first_name, u.last_name FROM atm.account a JOIN atm.user u ON u.id = a.user_id";
+    private static final String SELECT_ACCOUNT_SQL = SELECT_ACCOUNTS_SQL + " WHERE a.id = (?)";
+    private static final String SELECT_ACCOUNTS_BY_USER_SQL = SELECT_ACCOUNTS_SQL + " WHERE a.user_id = (?)";
+    private static final String SELECT_ACCOUNTS_MODIFIED_SQL = "SELECT a.id, a.user_id, a.name, a.balance, " +
+            "u.first_name, u.last_name, a.last_update FROM atm.account a JOIN atm.user u ON u.id = a.user_id " +
+            "WHERE a.last_update >= (?) ORDER BY a.last_update";
+    private static final String SELECT_ACCOUNT_COLUMNS_SQL = "SELECT id, user_id, name, balance FROM atm.account";
+    private static final String UPSERT_ACCOUNT_SQL = "INSERT INTO atm.account (id, user_id, name, balance, last_update) " +
+            "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id), user_id = VALUES(user_id), " +
+            "name = VALUES(name), balance = VALUES(balance), last_update = VALUES(last_update), version = version + 1";
+    private static final String DELETE_ACCOUNT_BY_ID_SQL = "DELETE FROM atm.account WHERE id = (?)";
+    private static final String ADD_TO_BALANCE_SQL = "UPDATE atm.account SET balance = balance + (?), " +
+            "last_update = (?), version = version + 1 WHERE id = (?)";
+    private static final String SELECT_TRANSFER_ACCOUNTS_SQL = "SELECT id, balance, version FROM atm.account " +
+            "WHERE id IN (?, ?)";
+    // only succeeds if nobody changed the row since it was read
+    private static final String UPDATE_BALANCE_IF_VERSION_SQL = "UPDATE atm.account SET balance = (?), " +
+            "last_update = (?), version = version + 1 WHERE id = (?) AND version = (?)";
+    private static final String SELECT_JOURNAL_CHECKPOINT_SQL = "SELECT last_sequence FROM atm.journal_checkpoint " +
+            "WHERE name = (?)";
+    private static final String LOCK_JOURNAL_CHECKPOINT_SQL = SELECT_JOURNAL_CHECKPOINT_SQL + " FOR UPDATE";
+    private static final String UPSERT_JOURNAL_CHECKPOINT_SQL = "INSERT INTO atm.journal_checkpoint (name, last_sequence) " +
+            "VALUES (?, ?) ON DUPLICATE KEY UPDATE last_sequence = VALUES(last_sequence)";
+    private static final String SELECT_BALANCES_SQL_PREFIX = "SELECT id, balance FROM atm.account WHERE id IN (";
+
+    // creates the sequence on first use; LAST_INSERT_ID(expr) hands the new value back to this connection only
+    private static final String RESERVE_ID_BLOCK_SQL = "INSERT INTO atm.id_block (name, next_value) " +
+            "VALUES (?, LAST_INSERT_ID(1 + ?)) ON DUPLICATE KEY UPDATE next_value = LAST_INSERT_ID(next_value + ?)";
+    private static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
+
+    private static final Logger LOGGER = Logger.getLogger(DataAccess.class.getName());
+
     private static DataAccess m_singleton = null;
 
-    private Connection m_connect = null;
+    private volatile ConnectionPool m_pool = null;
+    private volatile UserCache m_userCache = null;
+    private volatile UserNameIndex m_nameIndex = null;
+    private final ThreadLocal<IdentityScope> m_scope = new ThreadLocal<>();
 
-    private PreparedStatement m_insertUser;
-    private PreparedStatement m_selectAllUsers;
-    private PreparedStatement m_deleteUser;
-    private PreparedStatement m_selectSingleUser;
-    private PreparedStatement m_updateUser;
+    private final AtomicLong m_transferCommits = new AtomicLong();
+    private final AtomicLong m_transferRetries = new AtomicLong();
+    private final AtomicLong m_transferConflicts = new AtomicLong();
 
+    private static String m_url = "jdbc:mysql://localhost/atm";
     private static String m_user = "root";
     private static String m_password = "root";
 
+    private static int m_poolSize = 10;
+    private static long m_leaseTimeoutMillis = 5000;
+    private static long m_idleTimeoutMillis = 5 * 60 * 1000;
+
+    private static volatile int m_batchSize = 500;
+    private static volatile int m_transferAttempts = 10;
+
+    // SQLState of deadlocks, which can be retried
+    private static final String SQLSTATE_SERIALIZATION_FAILURE = "40001";
+    // MySQL error code of a lock wait timeout, which comes with the generic SQLState HY000
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+    // MySQL Connector/J streams a result row by row only for this fetch size.
+    // With useCursorFetch=true on the url a positive size fetches in chunks instead.
+    private static volatile int m_fetchSize = Integer.MIN_VALUE;
+
     /**
      * Default Constructor
      */
@@ -65,62 +159,280 @@ public class DataAccess {
     }
 
     /**
-     * Get the database connection
+     * Configure the connection pool. Takes effect the next time the pool is created,
+     * i.e. on the first connect() or after close().
+     *
+     * @param poolSize           - maximum number of open connections
+     * @param leaseTimeoutMillis - how long a query waits for a free connection
+     * @param idleTimeoutMillis  - idle connections are closed after this long
+     */
+    public synchronized static void configurePool(int poolSize, long leaseTimeoutMillis, long idleTimeoutMillis) {
+        m_poolSize = poolSize;
+        m_leaseTimeoutMillis = leaseTimeoutMillis;
+        m_idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Point DataAccess at another database with the atm schema, e.g. a local
+     * benchmark instance. Takes effect the next time the pool is created.
+     *
+     * @param url - JDBC url
+     */
+    public synchronized static void setUrl(String url) {
+        m_url = url;
+    }
+
+    /**
+     * @return - JDBC url connections are opened with
+     */
+    public synchronized static String getUrl() {
+        return m_url;
+    }
+
+    /**
+     * @return - maximum number of pooled connections
+     */
+    public synchronized static int getPoolSize() {
+        return m_poolSize;
+    }
+
+    /**
+     * Set how many rows the bulk write methods send per JDBC batch. Each batch is
+     * committed as one transaction. Also the most ids getUsersByIds puts in one query.
+     *
+     * @param batchSize - rows per batch
+     */
+    public synchronized static void setBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+        m_batchSize = batchSize;
+    }
+
+    /**
+     * Set how often transfer() tries before giving up on a conflicting update
+     *
+     * @param attempts - attempts per transfer, including the first
+     */
+    public synchronized static void setTransferAttempts(int attempts) {
+        if (attempts < 1) throw new IllegalArgumentException("attempts must be at least 1");
+        m_transferAttempts = attempts;
+    }
+
+    /**
+     * Set the fetch size used by streamUsers()
+     *
+     * @param fetchSize - JDBC fetch size hint
+     */
+    public synchronized static void setFetchSize(int fetchSize) {
+        m_fetchSize = fetchSize;
+    }
+
+    /**
+     * Get a database connection leased from the pool. The lease is held until the
+     * connection is closed, so always close it, e.g. in a try-with-resources block;
+     * every unclosed connection takes one of the pool's connections for good.
      *
-     * @return - database connection
+     * @return - database connection, null if one could not be opened
      */
     public Connection getConnection() {
         try {
-            if (m_connect == null || m_connect.isClosed()) connect();
+            return pool().getConnection();
         } catch (Exception ex) {
             // DataAccessTestCase does not allow exception so it will be swallowed here
         }
-        return m_connect;
+        return null;
     }
 
     /**
-     * Connect to the MySQL database
+     * Connect to the MySQL database. Creates the connection pool and checks that
+     * a connection can be opened.
      *
      * @throws AtmDataException
      */
     public void connect() throws AtmDataException {
         try {
-            Class.forName("com.mysql.jdbc.Driver");
+            // lease validates the connection
+            pool().lease().close();
+        } catch (AtmDataException ex) {
+            LOGGER.warning(ex.getMessage());
+            throw ex;
+        }
+    }
 
-            m_connect = DriverManager.getConnection("jdbc:mysql://localhost/atm?" +
-                    "user=root&password=root");
+    /**
+     * @return - connection pool statistics, null if not connected
+     */
+    public ConnectionPool.Stats getPoolStats() {
+        ConnectionPool pool = m_pool;
+        return pool == null ? null : pool.getStats();
+    }
 
-            setupPreparedStatements();
-        } catch (Exception ex) {
-            System.out.println(ex.getMessage());
-            throw new AtmDataException(ex);
+    private ConnectionPool pool() throws AtmDataException {
+        ConnectionPool pool = m_pool;
+        if (pool == null || pool.isClosed()) {
+            // the class lock also guards the static settings read below
+            synchronized (DataAccess.class) {
+                pool = m_pool;
+                if (pool == null || pool.isClosed()) {
+                    try {
+                        // other drivers, e.g. an embedded MariaDB, register themselves
+                        if (m_url.startsWith("jdbc:mysql:")) Class.forName("com.mysql.jdbc.Driver");
+                    } catch (ClassNotFoundException ex) {
+                        throw new AtmDataException(ex);
+                    }
+                    pool = new ConnectionPool(m_url, m_user, m_password, m_poolSize,
+                            m_leaseTimeoutMillis, m_idleTimeoutMillis);
+                    m_pool = pool;
+                }
+            }
         }
+        return pool;
     }
 
-    private void setupPreparedStatements() throws SQLException {
-        String INSERT_USER_SQL = "INSERT INTO atm.user VALUES (?, ?, ?, ?)";
-        String SELECT_ALL_USERS_SQL = "SELECT id, first_name, last_name FROM atm.user";
-        String DELETE_USER_BY_ID_SQL = "DELETE FROM atm.user WHERE id = (?)";
-        String SELECT_USER_SQL_FMT = "SELECT id, first_name, last_name FROM atm.user WHERE id = (?)";
-        String UPDATE_USER_SQL = "UPDATE atm.user SET first_name = (?), " +
-                "last_name = (?), last_update = (?) WHERE id = (?)";
+    /**
+     * Close the connection pool
+     */
+    public void close() {
+        ConnectionPool pool = m_pool;
+        if (pool != null) pool.close();
+    }
 
-        m_insertUser = m_connect.prepareStatement(INSERT_USER_SQL);
-        m_selectAllUsers = m_connect.prepareStatement(SELECT_ALL_USERS_SQL);
-        m_deleteUser = m_connect.prepareStatement(DELETE_USER_BY_ID_SQL);
-        m_selectSingleUser = m_connect.prepareStatement(SELECT_USER_SQL_FMT);
-        m_updateUser = m_connect.prepareStatement(UPDATE_USER_SQL);
+    /**
+     * Put a read-through cache in front of getUserById. saveUser and removeUser keep it
+     * up to date. Replaces any cache that was already enabled.
+     *
+     * @param maxEntries - number of users kept before the least recently used is evicted
+     * @param ttlMillis  - how long a cached user stays valid, 0 for no expiry
+     */
+    public void enableUserCache(int maxEntries, long ttlMillis) {
+        m_userCache = new UserCache(maxEntries, ttlMillis);
     }
 
     /**
-     * Close the connection to the database
+     * Stop caching users; every getUserById goes to the database again
      */
-    public void close() {
-        try {
-            if (m_connect != null) m_connect.close();
+    public void disableUserCache() {
+        m_userCache = null;
+    }
+
+    /**
+     * @return - user cache counters, null if the cache is not enabled
+     */
+    public UserCache.Stats getUserCacheStats() {
+        UserCache cache = m_userCache;
+        return cache == null ? null : cache.getStats();
+    }
+
+    /**
+     * Build an in-memory name index over every user for findUsersByNamePrefix.
+     * saveUser and removeUser keep it up to date from then on.
+     *
+     * @throws AtmDataException - the users could not be read; the index is not used
+     */
+    public void enableNameIndex() throws AtmDataException {
+        UserNameIndex nameIndex = new UserNameIndex();
+        // installed before loading, so saves made meanwhile reach it
+        m_nameIndex = nameIndex;
+        try (Stream<User> users = streamUsers()) {
+            nameIndex.load(users);
+        } catch (UncheckedAtmDataException ex) {
+            m_nameIndex = null;
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Drop the name index; findUsersByNamePrefix queries the database again
+     */
+    public void disableNameIndex() {
+        m_nameIndex = null;
+    }
+
+    /**
+     * Open an identity scope on the calling thread. Until it is closed, users read by
+     * getUserById, getUsers and the account queries on this thread are one instance
+     * per id, and getUserById answers ids already read without a query. Use it in a
+     * try-with-resources block; opening a scope inside an open one joins it.
+     *
+     * @return - the scope, to be closed on this thread
+     */
+    public IdentityScope openScope() {
+        IdentityScope scope = m_scope.get();
+        if (scope != null) {
+            scope.enter();
+            return scope;
+        }
+        scope = new IdentityScope(this::loadUsersByIds, m_scope::remove);
+        m_scope.set(scope);
+        return scope;
+    }
+
+    /** Scope for an account query: the open one, else one that shares owners within the query */
+    private IdentityScope accountScope() {
+        IdentityScope scope = m_scope.get();
+        return scope != null ? scope : IdentityScope.forQuery(this::loadUsersByIds);
+    }
+
+    /**
+     * Find users whose last name starts with the prefix, ordered by last then first
+     * name, followed by users whose first name starts with it. Case is ignored.
+     *
+     * Answered from the name index when it is enabled, otherwise by LIKE 'prefix%'
+     * queries on the name indexes of the user table.
+     *
+     * @param prefix - start of a last or first name
+     * @param limit  - maximum number of users to return
+     * @return - matching users
+     * @throws AtmDataException
+     */
+    public List<User> findUsersByNamePrefix(String prefix, int limit) throws AtmDataException {
+        UserNameIndex nameIndex = m_nameIndex;
+        if (nameIndex != null && nameIndex.isLoaded()) return nameIndex.findByPrefix(prefix, limit);
+
+        List<User> userList = new ArrayList<>(Math.min(limit, 64));
+        String pattern = escapeLike(prefix) + "%";
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement byLastName = pooled.prepare(SELECT_USERS_BY_LAST_NAME_PREFIX_SQL);
+            byLastName.setString(1, pattern);
+            byLastName.setInt(2, limit);
+            readUsers(byLastName, userList);
+
+            if (userList.size() < limit) {
+                PreparedStatement byFirstName = pooled.prepare(SELECT_USERS_BY_FIRST_NAME_PREFIX_SQL);
+                byFirstName.setString(1, pattern);
+                byFirstName.setString(2, pattern);
+                byFirstName.setInt(3, limit - userList.size());
+                readUsers(byFirstName, userList);
+            }
         } catch (SQLException ex) {
-            // DataAccessTestCase does not allow an exception to be thrown so it will be swallowed here
+            throw new AtmDataException(ex);
         }
+
+        return userList;
+    }
+
+    private static void readUsers(PreparedStatement statement, List<User> userList) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            readAll(resultSet, new UserRowMapper(resultSet), userList);
+        }
+    }
+
+    private static <T> List<T> readAll(ResultSet resultSet, RowMapper<T> mapper, List<T> rows) throws SQLException {
+        while (resultSet.next()) {
+            rows.add(mapper.map(resultSet));
+        }
+        return rows;
+    }
+
+    /** Make % and _ in user input match literally; backslash is MySQL's LIKE escape */
+    private static String escapeLike(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 4);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') escaped.append('\\');
+            escaped.append(c);
+        }
+        return escaped.toString();
     }
 
     /**
@@ -131,69 +443,99 @@ public class DataAccess {
      * @throws AtmDataException
      */
     public User getUserById(long id) throws AtmDataException {
-        System.out.println("Getting user with id: " + id);
-        User user = null;
-        ResultSet resultSet;
-
-        try {
-            if (m_connect == null || m_connect.isClosed()) connect();
-
-            m_selectSingleUser.setLong(1, id);
-            resultSet = m_selectSingleUser.executeQuery();
+        LOGGER.log(Level.FINE, "Getting user with id: {0}", id);
+        IdentityScope scope = m_scope.get();
+        if (scope != null) {
+            User known = scope.get(id);
+            if (known != null) return known;
+        }
 
-            while (resultSet.next()) {
-                user = new User();
-                user.setUserId(resultSet.getLong("id"));
-                user.setFirstName(resultSet.getString("first_name"));
-                user.setLastName(resultSet.getString("last_name"));
-                System.out.println("User found: " + user.toString());
-            }
+        UserCache cache = m_userCache;
+        long generation = 0;
+        if (cache != null) {
+            User cached = cache.get(id);
+            if (cached != null) return scope != null ? scope.add(cached) : cached;
+            generation = cache.getGeneration();
+        }
 
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            User user = getUserById(pooled, id);
+            if (cache != null && user != null) cache.putLoaded(user, generation);
+            return scope != null && user != null ? scope.add(user) : user;
         } catch (SQLException ex) {
             throw new AtmDataException(ex);
         }
+    }
+
+    private User getUserById(ConnectionPool.PooledConnection pooled, long id) throws SQLException {
+        User user = null;
+        PreparedStatement selectSingleUser = pooled.prepare(SELECT_USER_SQL);
+        selectSingleUser.setLong(1, id);
+
+        try (ResultSet resultSet = selectSingleUser.executeQuery()) {
+            if (resultSet.next()) {
+                user = new UserRowMapper(resultSet).map(resultSet);
+                LOGGER.log(Level.FINE, "User found: {0}", user);
+            }
+        }
 
         return user;
     }
 
     /**
      * Save the given user object in the database. If the user id already exists, the user will be updated.
+     * A user without an id (-1) is inserted and gets an id generated by the database.
+     *
+     * The insert-or-update is a single statement, so this is one round trip.
      *
      * @param user - user to be saved or updated
-     * @return - user that is saved or updated
+     * @return - user that is saved or updated, carrying the stored id
      * @throws AtmDataException
      */
     public User saveUser(User user) throws AtmDataException {
-        Calendar now = Calendar.getInstance();
-        Date updateDate = new Date(now.getTime().getTime());
+        Timestamp updateTime = new Timestamp(System.currentTimeMillis());
 
-        try {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            LOGGER.log(Level.FINE, "Saving user with id: {0}", user.getUserId());
+            PreparedStatement upsertUser = pooled.prepare(UPSERT_USER_SQL, Statement.RETURN_GENERATED_KEYS);
+            bindUser(upsertUser, user, updateTime);
+            upsertUser.executeUpdate();
 
-            if (m_connect == null || m_connect.isClosed()) connect();
-
-            // first see it user already exists
-            User existingUser = getUserById(user.getUserId());
-            if (existingUser != null && existingUser.getUserId() == user.getUserId()) {
-                System.out.println("Updating user with id: " + user.getUserId());
-                m_updateUser.setString(1, user.getFirstName());
-                m_updateUser.setString(2, user.getLastName());
-                m_updateUser.setDate(3, updateDate);
-                m_updateUser.setLong(4, user.getUserId());
-                m_updateUser.executeUpdate();
-            } else {
-                System.out.println("Inserting user with id: " + user.getUserId());
-                m_insertUser.setLong(1, user.getUserId());
-                m_insertUser.setString(2, user.getFirstName());
-                m_insertUser.setString(3, user.getLastName());
-                m_insertUser.setDate(4, updateDate);
-                m_insertUser.executeUpdate();
+            long id = user.getUserId();
+            try (ResultSet keys = upsertUser.getGeneratedKeys()) {
+                if (keys.next()) id = keys.getLong(1);
             }
-            return getUserById(user.getUserId());
+            User saved = new User(id, user.getFirstName(), user.getLastName());
+            UserCache cache = m_userCache;
+            if (cache != null) cache.put(saved);
+            UserNameIndex nameIndex = m_nameIndex;
+            if (nameIndex != null) nameIndex.put(saved);
+            IdentityScope scope = m_scope.get();
+            return scope != null ? scope.saved(saved) : saved;
         } catch (SQLException ex) {
             throw new AtmDataException(ex);
         }
     }
 
+    private static void bindUser(PreparedStatement statement, User user, Timestamp updateTime) throws SQLException {
+        if (hasId(user.getUserId())) {
+            statement.setLong(1, user.getUserId());
+        } else {
+            statement.setNull(1, Types.BIGINT);
+        }
+        statement.setString(2, user.getFirstName());
+        statement.setString(3, user.getLastName());
+        statement.setTimestamp(4, updateTime);
+    }
+
+    /**
+     * @param id - id from a User or Account
+     * @return - true if the id was assigned, false for the -1 "new object" id
+     */
+    private static boolean hasId(long id) {
+        return id > 0;
+    }
+
     /**
      * Delete the given user object from the database
      *
@@ -202,11 +544,17 @@ public class DataAccess {
      */
     public void removeUser(User user) throws AtmDataException {
 
-        try {
-            if (m_connect == null || m_connect.isClosed()) connect();
-            m_deleteUser.setLong(1, user.getUserId());
-            m_deleteUser.executeUpdate();
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement deleteUser = pooled.prepare(DELETE_USER_BY_ID_SQL);
+            deleteUser.setLong(1, user.getUserId());
+            deleteUser.executeUpdate();
 
+            UserCache cache = m_userCache;
+            if (cache != null) cache.invalidate(user.getUserId());
+            UserNameIndex nameIndex = m_nameIndex;
+            if (nameIndex != null) nameIndex.remove(user.getUserId());
+            IdentityScope scope = m_scope.get();
+            if (scope != null) scope.removed(user.getUserId());
         } catch (SQLException ex) {
             throw new AtmDataException(ex);
         }
@@ -220,23 +568,997 @@ public class DataAccess {
      */
     public List<User> getUsers() throws AtmDataException {
         List<User> userList = new ArrayList<>();
-        ResultSet resultSet;
 
+        try (ConnectionPool.PooledConnection pooled = pool().lease();
+             ResultSet resultSet = pooled.prepare(SELECT_ALL_USERS_SQL).executeQuery()) {
+            readAll(resultSet, new UserRowMapper(resultSet, "id", m_scope.get()), userList);
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return userList;
+    }
+
+    /**
+     * Get the users with the given ids using IN queries of up to the batch size
+     * (see setBatchSize). The placeholder count is rounded up to a power of two so
+     * only a few distinct statements are prepared.
+     *
+     * @param ids - user ids
+     * @return - the users found, in no particular order; missing ids are left out
+     * @throws AtmDataException
+     */
+    public List<User> getUsersByIds(Collection<Long> ids) throws AtmDataException {
+        return readUsersByIds(ids, m_scope.get());
+    }
+
+    /** UserBatchLoader for identity scopes; the scope registers the users itself */
+    private List<User> loadUsersByIds(Collection<Long> ids) throws AtmDataException {
+        return readUsersByIds(ids, null);
+    }
+
+    private List<User> readUsersByIds(Collection<Long> ids, IdentityScope scope) throws AtmDataException {
+        List<User> userList = new ArrayList<>(ids.size());
+        Long[] idArray = ids.toArray(new Long[0]);
+        int batchSize = m_batchSize;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            for (int start = 0; start < idArray.length; start += batchSize) {
+                int count = Math.min(batchSize, idArray.length - start);
+                // rounded up to a power of two, capped at the batch size
+                int placeholders = Math.max(count, Math.min(Integer.highestOneBit(count - 1) << 1, batchSize));
+
+                PreparedStatement selectByIds = pooled.prepare(selectUsersByIdsSql(placeholders));
+                for (int i = 0; i < placeholders; i++) {
+                    // padding repeats the last id, which IN ignores
+                    selectByIds.setLong(i + 1, idArray[start + Math.min(i, count - 1)]);
+                }
+                try (ResultSet resultSet = selectByIds.executeQuery()) {
+                    readAll(resultSet, new UserRowMapper(resultSet, "id", scope), userList);
+                }
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return userList;
+    }
+
+    private static String selectUsersByIdsSql(int placeholders) {
+        StringBuilder sql = new StringBuilder(SELECT_USERS_BY_IDS_SQL.length() + placeholders * 2);
+        sql.append(SELECT_USERS_BY_IDS_SQL);
+        for (int i = 0; i < placeholders; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Get one page of users ordered by id. Pass the last id of the previous page to
+     * get the next one; start with 0. The query seeks on the primary key, so every
+     * page costs the same no matter how far into the table it is.
+     *
+     * @param afterId - only users with a larger id are returned
+     * @param limit   - maximum number of users to return
+     * @return - List of user objects, empty after the last page
+     * @throws AtmDataException
+     */
+    public List<User> getUsers(long afterId, int limit) throws AtmDataException {
+        List<User> userList = new ArrayList<>(Math.min(limit, 1000));
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement selectPage = pooled.prepare(SELECT_USER_PAGE_SQL);
+            selectPage.setLong(1, afterId);
+            selectPage.setInt(2, limit);
+
+            try (ResultSet resultSet = selectPage.executeQuery()) {
+                readAll(resultSet, new UserRowMapper(resultSet, "id", m_scope.get()), userList);
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return userList;
+    }
+
+    /**
+     * Get the users saved at or after the given time, oldest change first. Uses the
+     * index on last_update, so the cost depends on the number of changes, not on the
+     * table size. Removed users are not reported.
+     *
+     * @param since - earliest last_update to include
+     * @return - changed users and the latest last_update among them
+     * @throws AtmDataException
+     */
+    public ChangeSet<User> getUsersModifiedSince(Instant since) throws AtmDataException {
+        List<User> userList = new ArrayList<>();
+        Instant latest = null;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement selectModified = pooled.prepare(SELECT_USERS_MODIFIED_SQL);
+            selectModified.setTimestamp(1, Timestamp.from(since));
+
+            try (ResultSet resultSet = selectModified.executeQuery()) {
+                UserRowMapper mapper = new UserRowMapper(resultSet, "id", m_scope.get());
+                int lastUpdate = resultSet.findColumn("last_update");
+                while (resultSet.next()) {
+                    userList.add(mapper.map(resultSet));
+                    latest = resultSet.getTimestamp(lastUpdate).toInstant();
+                }
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return new ChangeSet<>(userList, latest);
+    }
+
+    /**
+     * Stream every user in the database over a forward-only cursor. Rows are read as
+     * the stream is consumed, so memory use does not depend on the table size.
+     *
+     * The stream holds a pooled connection until it is closed, so always use it in a
+     * try-with-resources block. Database errors while reading surface as
+     * UncheckedAtmDataException.
+     *
+     * @return - stream of user objects
+     * @throws AtmDataException - the query could not be started
+     */
+    public Stream<User> streamUsers() throws AtmDataException {
+        final ConnectionPool.PooledConnection pooled = pool().lease();
+        final PreparedStatement statement;
+        final ResultSet resultSet;
+        final UserRowMapper mapper;
+
+        try {
+            statement = prepareStreaming(pooled, SELECT_ALL_USERS_SQL);
+            resultSet = statement.executeQuery();
+            mapper = new UserRowMapper(resultSet);
+        } catch (SQLException ex) {
+            pooled.close();
+            throw new AtmDataException(ex);
+        }
+
+        Spliterator<User> rows = new Spliterators.AbstractSpliterator<User>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super User> action) {
+                try {
+                    if (!resultSet.next()) return false;
+                    action.accept(mapper.map(resultSet));
+                    return true;
+                } catch (SQLException ex) {
+                    throw new UncheckedAtmDataException(new AtmDataException(ex));
+                }
+            }
+        };
+
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                // the connection is validated before its next lease
+            } finally {
+                pooled.close();
+            }
+        });
+    }
+
+    /**
+     * Get every account together with its owner
+     *
+     * @return - List of account objects
+     * @throws AtmDataException
+     */
+    public List<Account> getAccounts() throws AtmDataException {
+        return getAccounts(false);
+    }
+
+    /**
+     * Get every account, optionally without reading the owners. Lazy owners are not
+     * joined; the first Account.getUser() loads every owner not loaded yet with
+     * getUsersByIds, so reports that only need balances never read a user row.
+     * Loading errors surface from getUser() as UncheckedAtmDataException.
+     *
+     * @param lazyOwners - leave owners for Account.getUser() to load
+     * @return - List of account objects
+     * @throws AtmDataException
+     */
+    public List<Account> getAccounts(boolean lazyOwners) throws AtmDataException {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            if (!lazyOwners) return readAccounts(pooled.prepare(SELECT_ACCOUNTS_SQL), accountScope());
+
+            try (ResultSet resultSet = pooled.prepare(SELECT_ACCOUNT_COLUMNS_SQL).executeQuery()) {
+                return readAll(resultSet, new AccountRowMapper(resultSet, accountScope(), true), new ArrayList<>());
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Get the accounts owned by one user
+     *
+     * @param userId - owner id
+     * @return - List of account objects, empty if the user has none
+     * @throws AtmDataException
+     */
+    public List<Account> getAccountsByUserId(long userId) throws AtmDataException {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement selectByUser = pooled.prepare(SELECT_ACCOUNTS_BY_USER_SQL);
+            selectByUser.setLong(1, userId);
+            return readAccounts(selectByUser, accountScope());
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Get the accounts saved or changed at or after the given time, oldest change
+     * first, each with its owner. Uses the index on last_update, so the cost depends
+     * on the number of changes, not on the table size. Removed accounts are not reported.
+     *
+     * @param since - earliest last_update to include
+     * @return - changed accounts and the latest last_update among them
+     * @throws AtmDataException
+     */
+    public ChangeSet<Account> getAccountsModifiedSince(Instant since) throws AtmDataException {
+        List<Account> accountList = new ArrayList<>();
+        Instant latest = null;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement selectModified = pooled.prepare(SELECT_ACCOUNTS_MODIFIED_SQL);
+            selectModified.setTimestamp(1, Timestamp.from(since));
+
+            try (ResultSet resultSet = selectModified.executeQuery()) {
+                AccountRowMapper mapper = new AccountRowMapper(resultSet, accountScope());
+                int lastUpdate = resultSet.findColumn("last_update");
+                while (resultSet.next()) {
+                    accountList.add(mapper.map(resultSet));
+                    latest = resultSet.getTimestamp(lastUpdate).toInstant();
+                }
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return new ChangeSet<>(accountList, latest);
+    }
+
+    /**
+     * Get a single account by id
+     *
+     * @param id - account id
+     * @return - account found in database, null if there is none
+     * @throws AtmDataException
+     */
+    public Account getAccountById(long id) throws AtmDataException {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement selectAccount = pooled.prepare(SELECT_ACCOUNT_SQL);
+            selectAccount.setLong(1, id);
+            List<Account> accounts = readAccounts(selectAccount, accountScope());
+            return accounts.isEmpty() ? null : accounts.get(0);
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    private static List<Account> readAccounts(PreparedStatement statement, IdentityScope scope) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return readAll(resultSet, new AccountRowMapper(resultSet, scope), new ArrayList<>());
+        }
+    }
+
+    /**
+     * Save the given account. An account without an id (-1) is inserted and gets an
+     * id generated by the database, otherwise the existing row is updated.
+     *
+     * @param account - account to be saved or updated
+     * @return - account that is saved, carrying the stored id
+     * @throws AtmDataException
+     */
+    public Account saveAccount(Account account) throws AtmDataException {
+        Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement upsertAccount = pooled.prepare(UPSERT_ACCOUNT_SQL, Statement.RETURN_GENERATED_KEYS);
+            bindAccount(upsertAccount, account, updateTime);
+            upsertAccount.executeUpdate();
+
+            long id = account.getAccountId();
+            try (ResultSet keys = upsertAccount.getGeneratedKeys()) {
+                if (keys.next()) id = keys.getLong(1);
+            }
+            return account.copyWithId(id);
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Delete the given account
+     *
+     * @param account - account to be deleted
+     * @throws AtmDataException
+     */
+    public void removeAccount(Account account) throws AtmDataException {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement deleteAccount = pooled.prepare(DELETE_ACCOUNT_BY_ID_SQL);
+            deleteAccount.setLong(1, account.getAccountId());
+            deleteAccount.executeUpdate();
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Move money between two accounts in one short transaction.
+     *
+     * No lock is held while the balances are read. Each row is then updated only if its
+     * version is unchanged; if another writer got there first the transaction is rolled
+     * back and retried after a short random pause, up to setTransferAttempts() times.
+     * The updates run in account id order, so two transfers between the same accounts
+     * take their row locks in the same order and cannot deadlock each other.
+     *
+     * @param fromId      - account to take the money from
+     * @param toId        - account to pay the money into
+     * @param amountMinor - amount in minor units, more than 0
+     * @throws AtmDataException - an account does not exist, the from account has too
+     *                          little money, or the rows kept changing; nothing was moved
+     */
+    public void transfer(long fromId, long toId, long amountMinor) throws AtmDataException {
+        if (amountMinor <= 0) throw new IllegalArgumentException("amount must be more than 0");
+        if (fromId == toId) throw new IllegalArgumentException("cannot transfer to the same account");
+
+        int attempts = m_transferAttempts;
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+
+            for (int attempt = 1; ; attempt++) {
+                boolean committed = false;
+                try {
+                    committed = tryTransfer(pooled, fromId, toId, amountMinor);
+                    if (committed) connection.commit();
+                } catch (SQLException ex) {
+                    if (!isRetryable(ex)) {
+                        connection.rollback();
+                        throw ex;
+                    }
+                } catch (AtmDataException ex) {
+                    connection.rollback();
+                    throw ex;
+                }
+                if (committed) {
+                    m_transferCommits.incrementAndGet();
+                    return;
+                }
+
+                connection.rollback();
+                if (attempt >= attempts) {
+                    m_transferConflicts.incrementAndGet();
+                    throw new AtmDataException("Transfer from " + fromId + " to " + toId +
+                            " still conflicting after " + attempts + " attempts");
+                }
+                m_transferRetries.incrementAndGet();
+                backOff(attempt);
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * @return - counts of committed, retried and abandoned transfers
+     */
+    public TransferStats getTransferStats() {
+        return new TransferStats(m_transferCommits.get(), m_transferRetries.get(), m_transferConflicts.get());
+    }
+
+    /**
+     * @param ex - failure of one transfer attempt
+     * @return - true if it was a deadlock or lock wait timeout, so the attempt can be retried
+     */
+    private static boolean isRetryable(SQLException ex) {
+        return SQLSTATE_SERIALIZATION_FAILURE.equals(ex.getSQLState())
+                || ex.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT;
+    }
+
+    /** One attempt; caller owns the transaction. Returns false if a row changed since it was read. */
+    private static boolean tryTransfer(ConnectionPool.PooledConnection pooled, long fromId, long toId,
+                                       long amountMinor) throws SQLException, AtmDataException {
+        long fromBalance = 0, fromVersion = -1, toBalance = 0, toVersion = -1;
+
+        PreparedStatement selectAccounts = pooled.prepare(SELECT_TRANSFER_ACCOUNTS_SQL);
+        selectAccounts.setLong(1, fromId);
+        selectAccounts.setLong(2, toId);
+        try (ResultSet resultSet = selectAccounts.executeQuery()) {
+            while (resultSet.next()) {
+                long balance = Money.fromBigDecimal(resultSet.getBigDecimal(2));
+                if (resultSet.getLong(1) == fromId) {
+                    fromBalance = balance;
+                    fromVersion = resultSet.getLong(3);
+                } else {
+                    toBalance = balance;
+                    toVersion = resultSet.getLong(3);
+                }
+            }
+        }
+
+        if (fromVersion < 0) throw new AtmDataException("No account " + fromId);
+        if (toVersion < 0) throw new AtmDataException("No account " + toId);
+        if (fromBalance < amountMinor) {
+            throw new AtmDataException("Account " + fromId + " has " + Money.format(fromBalance) +
+                    ", cannot transfer " + Money.format(amountMinor));
+        }
+
+        Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+        PreparedStatement updateBalance = pooled.prepare(UPDATE_BALANCE_IF_VERSION_SQL);
+        if (fromId < toId) {
+            return updateBalance(updateBalance, fromId, Money.subtract(fromBalance, amountMinor), fromVersion, updateTime)
+                    && updateBalance(updateBalance, toId, Money.add(toBalance, amountMinor), toVersion, updateTime);
+        }
+        return updateBalance(updateBalance, toId, Money.add(toBalance, amountMinor), toVersion, updateTime)
+                && updateBalance(updateBalance, fromId, Money.subtract(fromBalance, amountMinor), fromVersion, updateTime);
+    }
+
+    private static boolean updateBalance(PreparedStatement updateBalance, long id, long balanceMinor, long version,
+                                         Timestamp updateTime) throws SQLException {
+        updateBalance.setBigDecimal(1, Money.toBigDecimal(balanceMinor));
+        updateBalance.setTimestamp(2, updateTime);
+        updateBalance.setLong(3, id);
+        updateBalance.setLong(4, version);
+        return updateBalance.executeUpdate() == 1;
+    }
+
+    /** Random pause, growing with the attempt, so conflicting transfers stop colliding in lock step */
+    private static void backOff(int attempt) throws AtmDataException {
         try {
-            if (m_connect == null || m_connect.isClosed()) connect();
-            resultSet = m_selectAllUsers.executeQuery();
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1L << Math.min(attempt, 5)));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Reserve a block of ids from a named sequence in atm.id_block
+     *
+     * @param sequenceName - sequence to advance
+     * @param blockSize    - number of ids to reserve
+     * @return - first id of the reserved block
+     * @throws AtmDataException
+     */
+    public long reserveIdBlock(String sequenceName, int blockSize) throws AtmDataException {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement reserve = pooled.prepare(RESERVE_ID_BLOCK_SQL);
+            reserve.setString(1, sequenceName);
+            reserve.setInt(2, blockSize);
+            reserve.setInt(3, blockSize);
+            reserve.executeUpdate();
+
+            try (ResultSet resultSet = pooled.prepare(SELECT_LAST_INSERT_ID_SQL).executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1) - blockSize;
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Forward-only, read-only statement with the streaming fetch size. Not cached on
+     * the connection; the caller closes it.
+     */
+    private static PreparedStatement prepareStreaming(ConnectionPool.PooledConnection pooled, String sql)
+            throws SQLException {
+        PreparedStatement statement = pooled.getConnection().prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(m_fetchSize);
+        return statement;
+    }
 
+    /**
+     * Load every account into a column store for bulk balance scans. Rows are
+     * streamed straight into the columns without creating Account objects.
+     *
+     * @return - store holding every account
+     * @throws AtmDataException
+     */
+    public AccountColumnStore loadAccountColumns() throws AtmDataException {
+        AccountColumnStore store = new AccountColumnStore();
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease();
+             PreparedStatement statement = prepareStreaming(pooled, SELECT_ACCOUNT_COLUMNS_SQL);
+             ResultSet resultSet = statement.executeQuery()) {
             while (resultSet.next()) {
-                long userId = resultSet.getLong("id");
-                String first = resultSet.getString("first_name");
-                String last = resultSet.getString("last_name");
-                userList.add(new User(userId, first, last));
+                store.add(resultSet.getLong(1), resultSet.getLong(2), resultSet.getString(3),
+                        Money.fromBigDecimal(resultSet.getBigDecimal(4)));
             }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return store;
+    }
+
+    /**
+     * Copy every user into an off-heap store, streaming rows straight into it
+     *
+     * @param store - destination; existing ids are replaced
+     * @return - number of users copied
+     * @throws AtmDataException
+     */
+    public int loadUsers(OffHeapUserStore store) throws AtmDataException {
+        int count = 0;
 
+        try (ConnectionPool.PooledConnection pooled = pool().lease();
+             PreparedStatement statement = prepareStreaming(pooled, SELECT_ALL_USERS_SQL);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                store.put(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3));
+                count++;
+            }
         } catch (SQLException ex) {
             throw new AtmDataException(ex);
         }
 
-        return userList;
+        return count;
+    }
+
+    /**
+     * Copy every account into an off-heap store, streaming rows straight into it
+     *
+     * @param store - destination; existing ids are replaced
+     * @return - number of accounts copied
+     * @throws AtmDataException
+     */
+    public int loadAccounts(OffHeapAccountStore store) throws AtmDataException {
+        int count = 0;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease();
+             PreparedStatement statement = prepareStreaming(pooled, SELECT_ACCOUNT_COLUMNS_SQL);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                store.put(resultSet.getLong(1), resultSet.getLong(2), resultSet.getString(3),
+                        Money.fromBigDecimal(resultSet.getBigDecimal(4)));
+                count++;
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return count;
+    }
+
+    /**
+     * Add amounts to many account balances in one transaction: one UPDATE per account,
+     * sent as a single batch, then one query reading the new balances back. Accounts
+     * are updated in id order so concurrent callers take row locks in the same order.
+     *
+     * @param deltas - account id to the amount to add, in minor units
+     * @return - account id to the new balance in minor units; ids with no account are absent
+     * @throws AtmDataException - nothing was applied
+     */
+    public LongLongHashMap applyBalanceDeltas(LongLongHashMap deltas) throws AtmDataException {
+        long[] ids = deltas.keys();
+        Arrays.sort(ids);
+        LongLongHashMap balances = new LongLongHashMap(ids.length);
+        if (ids.length == 0) return balances;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                addToBalances(pooled, ids, deltas);
+                readBalances(connection, ids, balances);
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return balances;
+    }
+
+    /**
+     * Get the last journal sequence applied by applyJournalBatch
+     *
+     * @param journalName - journal to look up
+     * @return - last applied sequence, 0 if nothing was applied yet
+     * @throws AtmDataException
+     */
+    public long getJournalCheckpoint(String journalName) throws AtmDataException {
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement selectCheckpoint = pooled.prepare(SELECT_JOURNAL_CHECKPOINT_SQL);
+            selectCheckpoint.setString(1, journalName);
+            try (ResultSet resultSet = selectCheckpoint.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * Apply a batch of journaled balance changes and record the journal sequence
+     * it ends at, in one transaction. The checkpoint row is locked and checked first,
+     * so a batch whose commit went through but was never acknowledged is not applied
+     * again when the journal retries it.
+     *
+     * @param journalName   - journal the batch comes from
+     * @param deltas        - account id to the amount to add, in minor units
+     * @param firstSequence - sequence of the first journal record in the batch
+     * @param lastSequence  - sequence of the last journal record in the batch
+     * @return - number of accounts that did not exist and were skipped
+     * @throws AtmDataException - nothing was applied, also when the checkpoint is already
+     *                          inside the batch; re-read it and replay from there
+     */
+    public int applyJournalBatch(String journalName, LongLongHashMap deltas, long firstSequence,
+                                 long lastSequence) throws AtmDataException {
+        long[] ids = deltas.keys();
+        Arrays.sort(ids);
+        int missing = 0;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement lockCheckpoint = pooled.prepare(LOCK_JOURNAL_CHECKPOINT_SQL);
+                lockCheckpoint.setString(1, journalName);
+                long checkpoint;
+                try (ResultSet resultSet = lockCheckpoint.executeQuery()) {
+                    checkpoint = resultSet.next() ? resultSet.getLong(1) : 0;
+                }
+                if (checkpoint >= lastSequence) {
+                    // applied by an earlier attempt whose commit was not acknowledged
+                    connection.rollback();
+                    return 0;
+                }
+                if (checkpoint >= firstSequence) {
+                    connection.rollback();
+                    throw new AtmDataException("Journal " + journalName + " batch " + firstSequence + " to "
+                            + lastSequence + " overlaps checkpoint " + checkpoint);
+                }
+
+                int[] counts = addToBalances(pooled, ids, deltas);
+                for (int count : counts) {
+                    if (count == 0) missing++;
+                }
+
+                PreparedStatement saveCheckpoint = pooled.prepare(UPSERT_JOURNAL_CHECKPOINT_SQL);
+                saveCheckpoint.setString(1, journalName);
+                saveCheckpoint.setLong(2, lastSequence);
+                saveCheckpoint.executeUpdate();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        if (missing > 0) {
+            LOGGER.log(Level.WARNING, "Journal {0} skipped changes to {1} missing accounts",
+                    new Object[]{journalName, missing});
+        }
+        return missing;
+    }
+
+    /** Batched balance + amount UPDATE per account; caller owns the transaction */
+    private static int[] addToBalances(ConnectionPool.PooledConnection pooled, long[] ids, LongLongHashMap deltas)
+            throws SQLException {
+        if (ids.length == 0) return new int[0];
+
+        Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+        PreparedStatement addToBalance = pooled.prepare(ADD_TO_BALANCE_SQL);
+        for (long id : ids) {
+            addToBalance.setBigDecimal(1, Money.toBigDecimal(deltas.get(id, 0)));
+            addToBalance.setTimestamp(2, updateTime);
+            addToBalance.setLong(3, id);
+            addToBalance.addBatch();
+        }
+        return addToBalance.executeBatch();
+    }
+
+    private static void readBalances(Connection connection, long[] ids, LongLongHashMap balances)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(SELECT_BALANCES_SQL_PREFIX.length() + ids.length * 2);
+        sql.append(SELECT_BALANCES_SQL_PREFIX);
+        for (int i = 0; i < ids.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        // the IN list length varies per call, so this statement is not cached
+        try (PreparedStatement selectBalances = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < ids.length; i++) {
+                selectBalances.setLong(i + 1, ids[i]);
+            }
+            try (ResultSet resultSet = selectBalances.executeQuery()) {
+                while (resultSet.next()) {
+                    balances.put(resultSet.getLong(1), Money.fromBigDecimal(resultSet.getBigDecimal(2)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Save many users using JDBC batches. Users without an id get one generated.
+     *
+     * @param users - users to insert or update
+     * @return - saved users and the rows that failed
+     * @throws AtmDataException - the database could not be reached
+     */
+    public BatchResult<User> saveUsers(Collection<User> users) throws AtmDataException {
+        final Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+        BatchResult<User> result = executeBatch(users, UPSERT_USER_SQL, user -> !hasId(user.getUserId()),
+                (statement, user) -> bindUser(statement, user, updateTime),
+                (user, id) -> new User(id, user.getFirstName(), user.getLastName()));
+
+        UserCache cache = m_userCache;
+        if (cache != null) {
+            for (User saved : result.getSucceeded()) {
+                cache.put(saved);
+            }
+        }
+        UserNameIndex nameIndex = m_nameIndex;
+        if (nameIndex != null) {
+            for (User saved : result.getSucceeded()) {
+                nameIndex.put(saved);
+            }
+        }
+        IdentityScope scope = m_scope.get();
+        if (scope != null) {
+            for (User saved : result.getSucceeded()) {
+                scope.saved(saved);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Delete many users using JDBC batches
+     *
+     * @param users - users to delete
+     * @return - deleted users and the rows that failed
+     * @throws AtmDataException - the database could not be reached
+     */
+    public BatchResult<User> removeUsers(Collection<User> users) throws AtmDataException {
+        BatchResult<User> result = executeBatch(users, DELETE_USER_BY_ID_SQL, null,
+                (statement, user) -> statement.setLong(1, user.getUserId()), null);
+
+        UserCache cache = m_userCache;
+        if (cache != null) {
+            for (User removed : result.getSucceeded()) {
+                cache.invalidate(removed.getUserId());
+            }
+        }
+        UserNameIndex nameIndex = m_nameIndex;
+        if (nameIndex != null) {
+            for (User removed : result.getSucceeded()) {
+                nameIndex.remove(removed.getUserId());
+            }
+        }
+        IdentityScope scope = m_scope.get();
+        if (scope != null) {
+            for (User removed : result.getSucceeded()) {
+                scope.removed(removed.getUserId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Save many accounts using JDBC batches. Accounts without an id get one generated.
+     *
+     * @param accounts - accounts to insert or update
+     * @return - saved accounts and the rows that failed
+     * @throws AtmDataException - the database could not be reached
+     */
+    public BatchResult<Account> saveAccounts(Collection<Account> accounts) throws AtmDataException {
+        final Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+        return executeBatch(accounts, UPSERT_ACCOUNT_SQL, account -> !hasId(account.getAccountId()),
+                (statement, account) -> bindAccount(statement, account, updateTime),
+                (account, id) -> account.copyWithId(id));
+    }
+
+    /**
+     * Delete many accounts using JDBC batches
+     *
+     * @param accounts - accounts to delete
+     * @return - deleted accounts and the rows that failed
+     * @throws AtmDataException - the database could not be reached
+     */
+    public BatchResult<Account> removeAccounts(Collection<Account> accounts) throws AtmDataException {
+        return executeBatch(accounts, DELETE_ACCOUNT_BY_ID_SQL, null,
+                (statement, account) -> statement.setLong(1, account.getAccountId()), null);
+    }
+
+    private static void bindAccount(PreparedStatement statement, Account account, Timestamp updateTime)
+            throws SQLException {
+        if (hasId(account.getAccountId())) {
+            statement.setLong(1, account.getAccountId());
+        } else {
+            statement.setNull(1, Types.INTEGER);
+        }
+        statement.setLong(2, account.getUserId());
+        statement.setString(3, account.getName());
+        statement.setBigDecimal(4, Money.toBigDecimal(account.getBalanceMinor()));
+        statement.setTimestamp(5, updateTime);
+    }
+
+    /** Binds one row's parameters for a batched statement */
+    private interface RowBinder<T> {
+        void bind(PreparedStatement statement, T item) throws SQLException;
+    }
+
+    /** Copies a row with the id reported by the database */
+    private interface IdAssigner<T> {
+        T withId(T item, long id);
+    }
+
+    /**
+     * Run the statement once per item, batch by batch. Each batch is one transaction.
+     * When a batch fails it is rolled back and its rows are retried one at a time,
+     * so that the good rows are still written and each bad row is reported.
+     *
+     * Rows that already have an id keep it. Only the rows needing a key are sent
+     * in a batch of their own whose generated keys are read, one per row in order:
+     * an upsert that leaves a row unchanged reports no key, and one that updates a
+     * row may report more than one, so keys of mixed batches cannot be matched to
+     * their rows.
+     *
+     * @param needsKey - rows that get a generated id, null for statements without keys
+     */
+    private <T> BatchResult<T> executeBatch(Collection<T> items, String sql, Predicate<T> needsKey,
+                                            RowBinder<T> binder, IdAssigner<T> assigner) throws AtmDataException {
+        BatchResult<T> result = new BatchResult<>();
+        int batchSize = m_batchSize;
+        List<T> chunk = new ArrayList<>(Math.min(batchSize, items.size()));
+        int chunkStart = 0;
+
+        try (ConnectionPool.PooledConnection pooled = pool().lease()) {
+            PreparedStatement statement = needsKey != null
+                    ? pooled.prepare(sql, Statement.RETURN_GENERATED_KEYS)
+                    : pooled.prepare(sql);
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+
+            for (T item : items) {
+                chunk.add(item);
+                if (chunk.size() == batchSize) {
+                    writeChunk(connection, statement, chunk, chunkStart, needsKey, binder, assigner, result);
+                    chunkStart += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(connection, statement, chunk, chunkStart, needsKey, binder, assigner, result);
+            }
+        } catch (SQLException ex) {
+            throw new AtmDataException(ex);
+        }
+
+        return result;
+    }
+
+    private <T> void writeChunk(Connection connection, PreparedStatement statement, List<T> chunk, int chunkStart,
+                                Predicate<T> needsKey, RowBinder<T> binder, IdAssigner<T> assigner,
+                                BatchResult<T> result) throws SQLException {
+        List<T> written = new ArrayList<>(chunk);
+        List<Integer> keyed = new ArrayList<>();
+        try {
+            for (int i = 0; i < chunk.size(); i++) {
+                if (needsKey != null && needsKey.test(chunk.get(i))) {
+                    keyed.add(i);
+                } else {
+                    binder.bind(statement, chunk.get(i));
+                    statement.addBatch();
+                }
+            }
+            if (keyed.size() < chunk.size()) statement.executeBatch();
+
+            if (!keyed.isEmpty()) {
+                for (int i : keyed) {
+                    binder.bind(statement, chunk.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                assignKeys(statement, chunk, keyed, assigner, written);
+            }
+            connection.commit();
+            for (T item : written) {
+                result.addSuccess(item);
+            }
+        } catch (SQLException ex) {
+            connection.rollback();
+            statement.clearBatch();
+            writeRowByRow(connection, statement, chunk, chunkStart, needsKey, binder, assigner, result);
+        }
+    }
+
+    private <T> void writeRowByRow(Connection connection, PreparedStatement statement, List<T> chunk, int chunkStart,
+                                   Predicate<T> needsKey, RowBinder<T> binder, IdAssigner<T> assigner,
+                                   BatchResult<T> result) throws SQLException {
+        List<Integer> onlyRow = Collections.singletonList(0);
+        for (int i = 0; i < chunk.size(); i++) {
+            T item = chunk.get(i);
+            try {
+                binder.bind(statement, item);
+                statement.executeUpdate();
+                List<T> written = new ArrayList<>(Collections.singletonList(item));
+                if (needsKey != null && needsKey.test(item)) {
+                    assignKeys(statement, written, onlyRow, assigner, written);
+                }
+                connection.commit();
+                result.addSuccess(written.get(0));
+            } catch (SQLException ex) {
+                connection.rollback();
+                result.addFailure(chunkStart + i, item, ex);
+            }
+        }
+    }
+
+    /**
+     * Read the keys of a batch holding only the rows at the given positions, one key
+     * per row in order, into written. Fails if the driver reports fewer keys, so the
+     * batch is rolled back rather than rows getting ids that are not theirs.
+     */
+    private static <T> void assignKeys(PreparedStatement statement, List<T> rows, List<Integer> keyed,
+                                       IdAssigner<T> assigner, List<T> written) throws SQLException {
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            for (int i : keyed) {
+                if (!keys.next()) {
+                    throw new SQLException("Got fewer generated keys than the " + keyed.size() + " inserted rows");
+                }
+                written.set(i, assigner.withId(rows.get(i), keys.getLong(1)));
+            }
+        }
+    }
+
+    /**
+     * Transfer counters since the DataAccess instance was created
+     */
+    public static final class TransferStats {
+        private final long m_commits;
+        private final long m_retries;
+        private final long m_conflicts;
+
+        private TransferStats(long commits, long retries, long conflicts) {
+            m_commits = commits;
+            m_retries = retries;
+            m_conflicts = conflicts;
+        }
+
+        /** @return - transfers committed */
+        public long getCommits() {
+            return m_commits;
+        }
+
+        /** @return - attempts rolled back and retried because a row changed */
+        public long getRetries() {
+            return m_retries;
+        }
+
+        /** @return - transfers abandoned after every attempt conflicted */
+        public long getConflicts() {
+            return m_conflicts;
+        }
+
+        /** @return - retries per committed transfer */
+        public double getRetryRate() {
+            return m_commits == 0 ? 0.0 : (double) m_retries / m_commits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("commits=%d retries=%d conflicts=%d retryRate=%.3f",
+                    m_commits, m_retries, m_conflicts, getRetryRate());
+        }
     }
 }
@@ -0,0 +1,117 @@
+package week04.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.AbstractTestCase;
+import week04.app.User;
+
+/**
+ * Stress tests DataAccess with many threads calling getUserById and saveUser
+ * at the same time. Each thread owns one user, so any result carrying another
+ * thread's data means statements were shared between threads.
+ *
+ */
+public class DataAccessConcurrencyTestCase extends AbstractTestCase
+{
+	private static final int THREADS = 32;
+	private static final int ITERATIONS = 200;
+
+	public DataAccessConcurrencyTestCase()
+	{
+		super("DataAccessConcurrencyTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		DataAccess da = null;
+		try
+		{
+			da = DataAccess.getInstance();
+			da.connect();
+			result = testParallelReadsAndWrites(da);
+		}
+		catch(Exception ex)
+		{
+			trace("TestDataAccessConcurrency: Unexpected error in runTest: " + ex.getMessage());
+		}
+		finally
+		{
+			if(da != null)
+				da.close();
+		}
+		return result;
+	}
+
+	private boolean testParallelReadsAndWrites(final DataAccess da) throws Exception
+	{
+		trace(String.format("Testing %d threads x %d get/save calls", THREADS, ITERATIONS));
+
+		final List<User> users = new ArrayList<User>();
+		for(int t = 0; t < THREADS; t++)
+		{
+			users.add(da.saveUser(new User("Stress" + t, "Thread" + t)));
+		}
+
+		final AtomicInteger mismatches = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++)
+		{
+			final User own = users.get(t);
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for(int i = 0; i < ITERATIONS; i++)
+						{
+							String first = own.getLastName() + "-" + i;
+							User saved = da.saveUser(new User(own.getUserId(), first, own.getLastName()));
+							User read = da.getUserById(own.getUserId());
+							if( saved.getUserId() != own.getUserId() || read == null
+									|| !read.getFirstName().equals(first)
+									|| !read.getLastName().equals(own.getLastName()) )
+							{
+								mismatches.incrementAndGet();
+							}
+						}
+					}
+					catch(AtmDataException ex)
+					{
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		int calls = THREADS * ITERATIONS * 2;
+		trace(String.format("%d calls in %.1f ms (%.0f calls/sec)", calls, elapsed / 1e6, calls * 1e9 / elapsed));
+		trace("Pool: " + da.getPoolStats());
+
+		da.removeUsers(users);
+
+		if( mismatches.get() != 0 || errors.get() != 0 )
+		{
+			trace(String.format(" *** %d mismatched results, %d errors", mismatches.get(), errors.get()));
+			return false;
+		}
+		return true;
+	}
+}
@@ -1,7 +1,11 @@
 package week04.data;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import test.AbstractTestCase;
 import week04.app.Account;
@@ -33,11 +37,117 @@ public class DataAccessTestCase extends AbstractTestCase
 		boolean result3 = testUpdateUser();
 		boolean result4 = testOpenDataAccessWithParameters();
 		boolean result5 = testAccounts();
+		boolean result6 = testConnectionPool();
+		boolean result7 = testBulkUsers();
+		boolean result8 = testStreamAndPageUsers();
+		boolean result9 = testAsyncLookups();
 
-		return result1 && result2 && result3 && result4 && result5;
+		return result1 && result2 && result3 && result4 && result5
+				&& result6 && result7 && result8 && result9;
 	}
 
-	private boolean testAccounts()
+	private boolean testAsyncLookups()
+	{
+		boolean result = true;
+		DataAccess da = null;
+		AsyncDataAccess async = null;
+		try
+		{
+			da = getDataAccess();
+			da.connect();
+			async = new AsyncDataAccess(da);
+			trace(" Test async lookups, virtual threads: " + async.isUsingVirtualThreads());
+
+			User addedUser = da.saveUser(new User("Async", "User"));
+			Account addedAccount = da.saveAccount(new Account(addedUser, "Async Account", 10.00));
+
+			// start both lookups, then combine
+			CompletableFuture<User> user = async.getUserByIdAsync(addedUser.getUserId());
+			CompletableFuture<List<Account>> accounts = async.getAccountsByUserIdAsync(addedUser.getUserId());
+			int accountCount = user.thenCombine(accounts, (u, list) -> u == null ? -1 : list.size()).get();
+			if(accountCount != 1)
+			{
+				trace(" *** Combined async lookups returned " + accountCount);
+				result = false;
+			}
+
+			da.removeAccount(addedAccount);
+			async.removeUserAsync(addedUser).get();
+			if(async.getUserByIdAsync(addedUser.getUserId()).get() != null)
+			{
+				trace(" *** Async remove failed");
+				result = false;
+			}
+		}
+		catch(Exception ex)
+		{
+			trace(ex.getMessage());
+			result = false;
+		}
+		finally
+		{
+			if(async != null)
+				async.close();
+			if(da != null)
+				da.close();
+		}
+
+		return result;
+	}
+
+	private boolean testStreamAndPageUsers()
+	{
+		boolean result = true;
+		DataAccess da = null;
+		try
+		{
+			da = getDataAccess();
+			da.connect();
+
+			trace(" Test streaming and paging users ...");
+			int expected = da.getUsers().size();
+
+			long streamed;
+			try(Stream<User> users = da.streamUsers())
+			{
+				streamed = users.count();
+			}
+			if(streamed != expected)
+			{
+				trace(String.format(" *** Streamed %d users, expected %d", streamed, expected));
+				result = false;
+			}
+
+			int paged = 0;
+			long lastId = 0;
+			List<User> page = da.getUsers(lastId, 2);
+			while(!page.isEmpty())
+			{
+				paged += page.size();
+				lastId = page.get(page.size() - 1).getUserId();
+				page = da.getUsers(lastId, 2);
+			}
+			if(paged != expected)
+			{
+				trace(String.format(" *** Paged %d users, expected %d", paged, expected));
+				result = false;
+			}
+		}
+		catch(AtmDataException ex)
+		{
+			trace(ex.getMessage());
+			result = false;
+		}
+		finally
+		{
+			if(da != null)
+				da.close();
+		}
+
+		return result;
+	}
+
+	private boolean testBulkUsers()
 	{
 		boolean result = true;
 		DataAccess da = null;
@@ -45,9 +155,155 @@ public class DataAccessTestCase extends AbstractTestCase
 		{
 			da = getDataAccess();
 			da.connect();
-			Connection conn = da.getConnection();
 
-			trace("Connected to database: " + conn.toString());
+			trace(" Test bulk saving users ...");
+			List<User> beforeUserList = da.getUsers();
+			List<User> newUsers = new ArrayList<User>();
+			for(int i = 0; i < 5; i++)
+			{
+				newUsers.add(new User("Bulk" + i, "LastTest"));
+			}
+
+			BatchResult<User> saved = da.saveUsers(newUsers);
+			trace("Bulk save: " + saved.toString());
+			if(!saved.isComplete() || saved.getSucceeded().size() != newUsers.size())
+			{
+				trace(" *** Failed to bulk save users");
+				return false; // early exit
+			}
+
+			for(User user : saved.getSucceeded())
+			{
+				if(user.getUserId() == -1)
+				{
+					trace(" *** Bulk saved user did not get an id: " + user.toString());
+					result = false;
+				}
+			}
+
+			List<User> afterUserList = da.getUsers();
+			if(afterUserList.size() != beforeUserList.size() + newUsers.size())
+			{
+				trace(" *** Bulk saved users not found");
+				result = false;
+			}
+
+			// saved again within the same second, so the rows are unchanged and report no key
+			trace(" Test bulk re-saving unchanged users ...");
+			List<User> resave = new ArrayList<User>(saved.getSucceeded());
+			resave.add(2, new User("Bulk" + resave.size(), "LastTest"));
+			BatchResult<User> resaved = da.saveUsers(resave);
+			List<User> allSaved = new ArrayList<User>(saved.getSucceeded());
+			if(!resaved.isComplete() || resaved.getSucceeded().size() != resave.size())
+			{
+				trace(" *** Failed to re-save users: " + resaved.toString());
+				result = false;
+			}
+			else
+			{
+				for(int i = 0; i < resave.size(); i++)
+				{
+					User expected = resave.get(i);
+					User actual = resaved.getSucceeded().get(i);
+					boolean idOk = expected.getUserId() == -1
+							? actual.getUserId() != -1 && da.getUserById(actual.getUserId()).equals(actual)
+							: actual.getUserId() == expected.getUserId();
+					if(!idOk || !actual.getFirstName().equals(expected.getFirstName()))
+					{
+						trace(" *** Re-saved user got the wrong id: " + expected + " became " + actual);
+						result = false;
+					}
+				}
+				allSaved.add(resaved.getSucceeded().get(2));
+			}
+
+			BatchResult<User> removed = da.removeUsers(allSaved);
+			trace("Bulk remove: " + removed.toString());
+			afterUserList = da.getUsers();
+			if(!removed.isComplete() || afterUserList.size() != beforeUserList.size())
+			{
+				trace(" *** Failed to bulk remove users");
+				result = false;
+			}
+		}
+		catch(AtmDataException ex)
+		{
+			trace(ex.getMessage());
+			result = false;
+		}
+		finally
+		{
+			if(da != null)
+				da.close();
+		}
+
+		return result;
+	}
+
+	private boolean testConnectionPool()
+	{
+		boolean result = true;
+		DataAccess da = null;
+		try
+		{
+			da = getDataAccess();
+			da.connect();
+
+			trace(" Test leasing several connections at once ...");
+			Connection conn1 = da.getConnection();
+			Connection conn2 = da.getConnection();
+			if(conn1 == null || conn2 == null || conn1 == conn2)
+			{
+				trace(" *** Expected two distinct pooled connections");
+				return false; // early exit
+			}
+
+			ConnectionPool.Stats stats = da.getPoolStats();
+			trace("Pool with two leases: " + stats.toString());
+			if(stats.getActive() != 2)
+			{
+				trace(" *** Expected 2 active connections");
+				result = false;
+			}
+
+			conn1.close();
+			conn2.close();
+
+			stats = da.getPoolStats();
+			trace("Pool after release: " + stats.toString());
+			if(stats.getActive() != 0 || stats.getIdle() < 2)
+			{
+				trace(" *** Connections were not returned to the pool");
+				result = false;
+			}
+		}
+		catch(Exception ex)
+		{
+			trace(ex.getMessage());
+			result = false;
+		}
+		finally
+		{
+			if(da != null)
+				da.close();
+		}
+
+		return result;
+	}
+
+	private boolean testAccounts()
+	{
+		boolean result = true;
+		DataAccess da = null;
+		try
+		{
+			da = getDataAccess();
+			da.connect();
+			// the connection is leased from the pool until it is closed
+			try( Connection conn = da.getConnection() )
+			{
+				trace("Connected to database: " + conn.toString());
+			}
 			
 			trace(" Test account user - create user first...");
 			List<Account> beforeAccountList = da.getAccounts();
@@ -70,6 +326,35 @@ public class DataAccessTestCase extends AbstractTestCase
 				return false; // early exit
 			}
 			
+			trace(" Test saving an account whose owner is not loaded ...");
+			Account lazyAccount = null;
+			for(Account account : da.getAccounts(true))
+			{
+				if( account.getAccountId() == addedAccount.getAccountId() )
+				{
+					lazyAccount = account;
+				}
+			}
+			if( lazyAccount == null )
+			{
+				trace(" *** Saved account not found");
+				return false; // early exit
+			}
+			lazyAccount.setBalance(75.00);
+			Account resaved = da.saveAccount(lazyAccount);
+			if( lazyAccount.isUserLoaded() || resaved.isUserLoaded() || resaved.getUserId() != addedUser.getUserId() )
+			{
+				trace(" *** Saving the account loaded its owner");
+				result = false;
+			}
+
+			List<Account> userAccounts = da.getAccountsByUserId(addedUser.getUserId());
+			if( userAccounts.size() != 1 || !userAccounts.get(0).getUser().equals(addedUser))
+			{
+				trace(" *** Failed to load account with its owner");
+				return false; // early exit
+			}
+			
 			// clean up;
 			da.removeAccount(addedAccount);
 			afterAccountList = da.getAccounts();
@@ -112,9 +397,11 @@ public class DataAccessTestCase extends AbstractTestCase
 		{
 			da = DataAccess.getInstance("root", "root");
 			da.connect();
-			Connection conn = da.getConnection();
-
-			trace("Connected to database: " + conn.toString());
+			// the connection is leased from the pool until it is closed
+			try( Connection conn = da.getConnection() )
+			{
+				trace("Connected to database: " + conn.toString());
+			}
 		}
 		catch(AtmDataException ex)
 		{
@@ -144,9 +431,11 @@ public class DataAccessTestCase extends AbstractTestCase
 		try
 		{
 			da = getDataAccess();
-			Connection conn = da.getConnection();
-
-			trace("Connected to database: " + conn.toString());
+			// the connection is leased from the pool until it is closed
+			try( Connection conn = da.getConnection() )
+			{
+				trace("Connected to database: " + conn.toString());
+			}
 		}
 		catch(AtmDataException ex)
 		{
@@ -185,9 +474,11 @@ public class DataAccessTestCase extends AbstractTestCase
 		{
 			da = getDataAccess();
 			da.connect();
-			Connection conn = da.getConnection();
-
-			trace("Connected to database: " + conn.toString());
+			// the connection is leased from the pool until it is closed
+			try( Connection conn = da.getConnection() )
+			{
+				trace("Connected to database: " + conn.toString());
+			}
 
 			trace(" Test adding user ...");
 			List<User> beforeUserList = da.getUsers();
@@ -220,7 +511,7 @@ public class DataAccessTestCase extends AbstractTestCase
 
 			trace("Test adding user complete");
 		}
-		catch(AtmDataException ex)
+		catch(AtmDataException | SQLException ex)
 		{
 			trace(ex.getMessage());
 			result = false;
@@ -250,12 +541,22 @@ public class DataAccessTestCase extends AbstractTestCase
 			}
 			
 			trace(addedUser.toString());
+			if(addedUser.getUserId() == -1)
+			{
+				trace(" *** Saved user did not get a generated id");
+				return false; // early exit
+			}
 			
 			// modify user
 			addedUser.setFirstName("Modified");
 			trace(addedUser.toString());
 			
-			da.saveUser(addedUser);
+			User updatedUser = da.saveUser(addedUser);
+			if(updatedUser.getUserId() != addedUser.getUserId())
+			{
+				trace(" *** Update inserted a new user instead");
+				return false; // early exit
+			}
 			
 			User getUser = da.getUserById(addedUser.getUserId());
 			if(!getUser.getFirstName().equals(addedUser.getFirstName()))
@@ -0,0 +1,27 @@
+package week04.data;
+
+import week04.app.SystemIdGenerator;
+
+/**
+ * Reserves SystemIdGenerator blocks from the atm.id_block table, so ids stay unique
+ * across restarts. See resources/id_block_table.sql.
+ */
+public class DatabaseIdBlockSource implements SystemIdGenerator.BlockSource {
+
+    private final DataAccess m_dataAccess;
+    private final String m_sequenceName;
+
+    /**
+     * @param dataAccess   - database to reserve blocks from
+     * @param sequenceName - row in atm.id_block, e.g. "user"
+     */
+    public DatabaseIdBlockSource(DataAccess dataAccess, String sequenceName) {
+        m_dataAccess = dataAccess;
+        m_sequenceName = sequenceName;
+    }
+
+    @Override
+    public long reserveBlock(int blockSize) throws AtmDataException {
+        return m_dataAccess.reserveIdBlock(m_sequenceName, blockSize);
+    }
+}
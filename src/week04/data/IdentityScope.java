@@ -0,0 +1,195 @@
+package week04.data;
+
+import week04.app.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * Identity map for one unit of work, opened with DataAccess.openScope().
+ *
+ * While a scope is open on a thread, every user DataAccess reads on that thread
+ * is the same instance for the same id: accounts owned by one customer share one
+ * User, and getUserById answers ids already in the scope without a query. The
+ * first read of a user wins; later reads in the scope do not refresh its names,
+ * but saveUser updates the scoped instance in place.
+ *
+ * Accounts read with lazy owners register their owner id as pending. The first
+ * getUser() on any of them loads every pending owner in one batch, so a report
+ * that never touches owners never loads them, and one that does costs one query
+ * per batch rather than one per account.
+ *
+ * A scope is opened and closed by one thread. Opening a scope while one is open
+ * returns the open scope; it ends when the outermost close() runs. Lazy owners may
+ * be loaded from any thread, also after the scope has ended.
+ */
+public class IdentityScope implements AutoCloseable {
+
+    // guarded by this
+    private final Map<Long, User> m_users = new HashMap<>();
+    private final Set<Long> m_pending = new LinkedHashSet<>();
+    // owners a batch did not find, so their accounts do not query again
+    private final Set<Long> m_missing = new HashSet<>();
+    private final UserBatchLoader m_loader;
+    private final LongFunction<User> m_ownerLoader = this::loadOwner;
+    private final Runnable m_onClose;
+    private final Thread m_owner = Thread.currentThread();
+    private int m_depth = 1;
+    private long m_hits = 0;
+    private long m_batches = 0;
+
+    /**
+     * @param loader  - loads pending owners, null if accounts are never read lazily
+     * @param onClose - run when the outermost close() ends the scope, null for none
+     */
+    IdentityScope(UserBatchLoader loader, Runnable onClose) {
+        m_loader = loader;
+        m_onClose = onClose;
+    }
+
+    /**
+     * Scope for a single query when the caller has not opened one
+     *
+     * @param loader - loads pending owners, null if accounts are never read lazily
+     */
+    static IdentityScope forQuery(UserBatchLoader loader) {
+        return new IdentityScope(loader, null);
+    }
+
+    void enter() {
+        checkOwner();
+        m_depth++;
+    }
+
+    /**
+     * @param id - user id
+     * @return - the scope's instance, null if the scope has not seen the user
+     */
+    public synchronized User get(long id) {
+        User user = m_users.get(id);
+        if (user != null) m_hits++;
+        return user;
+    }
+
+    /**
+     * Register a user read from the database
+     *
+     * @param user - freshly read user
+     * @return - the instance already in the scope for its id, else user itself
+     */
+    synchronized User add(User user) {
+        m_missing.remove(user.getUserId());
+        User known = m_users.putIfAbsent(user.getUserId(), user);
+        return known == null ? user : known;
+    }
+
+    /**
+     * Register a saved user, updating the scope's instance in place
+     *
+     * @param saved - user as stored
+     * @return - the scope's instance for the saved id
+     */
+    synchronized User saved(User saved) {
+        m_missing.remove(saved.getUserId());
+        User known = m_users.get(saved.getUserId());
+        if (known == null) {
+            m_users.put(saved.getUserId(), saved);
+            return saved;
+        }
+        known.setFirstName(saved.getFirstName());
+        known.setLastName(saved.getLastName());
+        return known;
+    }
+
+    synchronized void removed(long id) {
+        m_users.remove(id);
+        m_pending.remove(id);
+        m_missing.add(id);
+    }
+
+    /**
+     * Note an owner to load with the next batch
+     *
+     * @param id - user id of a lazily read account's owner
+     * @return - loader to give the account; loads the owner and every other pending one
+     */
+    synchronized LongFunction<User> defer(long id) {
+        if (!m_users.containsKey(id) && !m_missing.contains(id)) m_pending.add(id);
+        return m_ownerLoader;
+    }
+
+    private synchronized User loadOwner(long id) {
+        User user = m_users.get(id);
+        if (user != null || m_missing.contains(id)) return user;
+
+        m_pending.add(id);
+        List<Long> ids = new ArrayList<>(m_pending);
+        m_pending.clear();
+        try {
+            for (User loaded : m_loader.loadUsers(ids)) {
+                m_users.putIfAbsent(loaded.getUserId(), loaded);
+            }
+            for (Long loadedId : ids) {
+                if (!m_users.containsKey(loadedId)) m_missing.add(loadedId);
+            }
+        } catch (AtmDataException ex) {
+            m_pending.addAll(ids);
+            throw new UncheckedAtmDataException(ex);
+        }
+        m_batches++;
+        return m_users.get(id);
+    }
+
+    /**
+     * @return - distinct users in the scope
+     */
+    public synchronized int size() {
+        return m_users.size();
+    }
+
+    /**
+     * @return - owner ids waiting for the next batch
+     */
+    public synchronized int getPendingCount() {
+        return m_pending.size();
+    }
+
+    /**
+     * @return - batches of lazy owners loaded
+     */
+    public synchronized long getBatchCount() {
+        return m_batches;
+    }
+
+    /**
+     * @return - lookups answered from the scope
+     */
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    /**
+     * End this level of the scope; the outermost close() ends it on the thread.
+     * Its users stay reachable only through accounts read in it that have not
+     * loaded their owner yet.
+     */
+    @Override
+    public void close() {
+        checkOwner();
+        if (m_depth == 0 || --m_depth > 0) return;
+
+        if (m_onClose != null) m_onClose.run();
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != m_owner) {
+            throw new IllegalStateException("Identity scope used outside the thread that opened it");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package week04.data;
+
+import week04.app.Account;
+import week04.app.User;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Accounts stored off the heap in fixed layout records:
+ * id (8 bytes), user id (8 bytes), balance in minor units (8 bytes), name (46 bytes).
+ *
+ * Read records through a View, which reads fields straight from the buffer
+ * without creating an Account.
+ */
+public class OffHeapAccountStore extends OffHeapRecordStore {
+
+    private static final int ID = 0;
+    private static final int USER_ID = ID + 8;
+    private static final int BALANCE = USER_ID + 8;
+    private static final int NAME = BALANCE + 8;
+    private static final int RECORD_SIZE = NAME + STRING_BYTES;
+
+    /**
+     * Store records in direct memory
+     *
+     * @throws AtmDataException
+     */
+    public OffHeapAccountStore() throws AtmDataException {
+        super(RECORD_SIZE, null);
+    }
+
+    /**
+     * Store records in a memory-mapped file, replacing its contents
+     *
+     * @param file - backing file
+     * @throws AtmDataException - the file could not be opened
+     */
+    public OffHeapAccountStore(Path file) throws AtmDataException {
+        super(RECORD_SIZE, file);
+    }
+
+    /**
+     * Add or replace an account
+     *
+     * @param id      - account id
+     * @param userId  - owner id
+     * @param name    - account name, at most 45 characters
+     * @param balance - balance in minor units
+     */
+    public void put(long id, long userId, String name, long balance) {
+        long offset = allocate(id);
+        ByteBuffer buffer = segment(offset);
+        int position = position(offset);
+        buffer.putLong(position + ID, id);
+        buffer.putLong(position + USER_ID, userId);
+        buffer.putLong(position + BALANCE, balance);
+        putString(buffer, position + NAME, name);
+    }
+
+    /**
+     * @param account - account to add or replace
+     */
+    public void put(Account account) {
+        put(account.getAccountId(), account.getUserId(), account.getName(), account.getBalanceMinor());
+    }
+
+    /**
+     * @param id - account id
+     * @return - true if the account is stored
+     */
+    public boolean contains(long id) {
+        return offsetOf(id) >= 0;
+    }
+
+    /**
+     * Total of every stored balance, read straight from the buffers
+     *
+     * @return - sum of the balances in minor units
+     */
+    public long sumBalances() {
+        long sum = 0;
+        for (int record = 0; record < size(); record++) {
+            long offset = offsetOfRecord(record);
+            sum += segment(offset).getLong(position(offset) + BALANCE);
+        }
+        return sum;
+    }
+
+    /**
+     * @return - a view that is not positioned on any record yet
+     */
+    public View newView() {
+        return new View();
+    }
+
+    /**
+     * Flyweight over one stored account. Reuse a view for many lookups; it is not
+     * thread safe, so use one per thread.
+     */
+    public final class View {
+        private ByteBuffer m_buffer;
+        private int m_position = -1;
+
+        private View() {
+        }
+
+        /**
+         * @param id - account id
+         * @return - true if the account exists and the view now points at it
+         */
+        public boolean moveTo(long id) {
+            long offset = offsetOf(id);
+            if (offset < 0) return false;
+            point(offset);
+            return true;
+        }
+
+        /**
+         * @param record - record number, 0 to size() - 1, for scanning every account
+         */
+        public void moveToRecord(int record) {
+            point(offsetOfRecord(record));
+        }
+
+        private void point(long offset) {
+            m_buffer = segment(offset);
+            m_position = position(offset);
+        }
+
+        public long getAccountId() {
+            return m_buffer.getLong(m_position + ID);
+        }
+
+        public long getUserId() {
+            return m_buffer.getLong(m_position + USER_ID);
+        }
+
+        public long getBalanceMinor() {
+            return m_buffer.getLong(m_position + BALANCE);
+        }
+
+        /**
+         * Change the stored balance in place
+         *
+         * @param balance - new balance in minor units
+         */
+        public void setBalanceMinor(long balance) {
+            m_buffer.putLong(m_position + BALANCE, balance);
+        }
+
+        public String getName() {
+            return getString(m_buffer, m_position + NAME);
+        }
+
+        public StringBuilder appendName(StringBuilder builder) {
+            return appendString(builder, m_buffer, m_position + NAME);
+        }
+
+        /**
+         * @param owner - owner to attach, e.g. from OffHeapUserStore.View.toUser()
+         * @return - a new Account copied from the record
+         */
+        public Account toAccount(User owner) {
+            Account account = new Account(getAccountId(), owner, getName(), 0.0);
+            account.setBalanceMinor(getBalanceMinor());
+            return account;
+        }
+    }
+}
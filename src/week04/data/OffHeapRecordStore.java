@@ -0,0 +1,191 @@
+package week04.data;
+
+import week04.util.LongLongHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size records kept outside the Java heap, indexed by a long id.
+ *
+ * Records live in direct buffers, or in a memory-mapped file, split into
+ * segments of whole records. The id index is a primitive LongLongHashMap from
+ * id to the record's byte offset. The heap cost is the segment list and the
+ * index arrays, not one object per record.
+ *
+ * Single writer: load the store on one thread, then read it from any number
+ * of threads.
+ */
+public abstract class OffHeapRecordStore implements AutoCloseable {
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    /** Bytes of a stored string: one length byte followed by latin1 characters */
+    protected static final int STRING_BYTES = 1 + 45;
+
+    private final int m_recordSize;
+    private final int m_recordsPerSegment;
+    private final List<ByteBuffer> m_segments = new ArrayList<>();
+    private final LongLongHashMap m_index = new LongLongHashMap();
+    private final FileChannel m_file;
+    private int m_count = 0;
+
+    /**
+     * @param recordSize - bytes per record
+     * @param file       - file to map the records into, null for direct memory
+     * @throws AtmDataException - the file could not be opened
+     */
+    protected OffHeapRecordStore(int recordSize, Path file) throws AtmDataException {
+        m_recordSize = recordSize;
+        m_recordsPerSegment = SEGMENT_BYTES / recordSize;
+        try {
+            m_file = file == null ? null : FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException ex) {
+            throw new AtmDataException(ex);
+        }
+    }
+
+    /**
+     * @return - number of records
+     */
+    public int size() {
+        return m_count;
+    }
+
+    /**
+     * @return - bytes reserved outside the heap
+     */
+    public long getOffHeapBytes() {
+        return (long) m_segments.size() * m_recordsPerSegment * m_recordSize;
+    }
+
+    /**
+     * @param id - record id
+     * @return - byte offset of the record, -1 if there is none
+     */
+    protected long offsetOf(long id) {
+        return m_index.get(id, -1);
+    }
+
+    /**
+     * @param record - record number, 0 to size() - 1
+     * @return - byte offset of the record
+     */
+    protected long offsetOfRecord(int record) {
+        if (record < 0 || record >= m_count) {
+            throw new IndexOutOfBoundsException("Record " + record + ", size " + m_count);
+        }
+        return (long) record * m_recordSize;
+    }
+
+    /**
+     * Find the record for an id, appending a new one if the id is not stored yet
+     *
+     * @param id - record id
+     * @return - byte offset of the record
+     */
+    protected long allocate(long id) {
+        long offset = m_index.get(id, -1);
+        if (offset >= 0) return offset;
+
+        int record = m_count;
+        if (record / m_recordsPerSegment == m_segments.size()) {
+            m_segments.add(newSegment(m_segments.size()));
+        }
+        offset = (long) record * m_recordSize;
+        m_index.put(id, offset);
+        m_count++;
+        return offset;
+    }
+
+    /**
+     * @param offset - record offset
+     * @return - segment holding the record; use position(offset) for the index in it
+     */
+    protected ByteBuffer segment(long offset) {
+        return m_segments.get((int) (offset / m_recordSize / m_recordsPerSegment));
+    }
+
+    /**
+     * @param offset - record offset
+     * @return - index of the record's first byte within its segment
+     */
+    protected int position(long offset) {
+        return (int) (offset / m_recordSize % m_recordsPerSegment) * m_recordSize;
+    }
+
+    private ByteBuffer newSegment(int index) {
+        int bytes = m_recordsPerSegment * m_recordSize;
+        if (m_file == null) return ByteBuffer.allocateDirect(bytes);
+
+        try {
+            return m_file.map(FileChannel.MapMode.READ_WRITE, (long) index * bytes, bytes);
+        } catch (IOException ex) {
+            throw new UncheckedAtmDataException(new AtmDataException(ex));
+        }
+    }
+
+    /**
+     * Release the mapped file. Direct buffers are freed when the store is collected.
+     */
+    @Override
+    public void close() {
+        m_segments.clear();
+        if (m_file != null) {
+            try {
+                m_file.close();
+            } catch (IOException ex) {
+                // nothing useful to do with a file that fails to close
+            }
+        }
+    }
+
+    /**
+     * Write a string as a length byte and latin1 characters, the atm tables' charset
+     *
+     * @throws IllegalArgumentException - longer than the column allows
+     */
+    protected static void putString(ByteBuffer buffer, int position, String value) {
+        int length = value.length();
+        if (length > STRING_BYTES - 1) {
+            throw new IllegalArgumentException("String longer than " + (STRING_BYTES - 1) + ": " + value);
+        }
+        buffer.put(position, (byte) length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            buffer.put(position + 1 + i, (byte) (c <= 0xff ? c : '?'));
+        }
+    }
+
+    protected static String getString(ByteBuffer buffer, int position) {
+        int length = buffer.get(position) & 0xff;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(position + 1 + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    protected static StringBuilder appendString(StringBuilder builder, ByteBuffer buffer, int position) {
+        int length = buffer.get(position) & 0xff;
+        for (int i = 0; i < length; i++) {
+            builder.append((char) (buffer.get(position + 1 + i) & 0xff));
+        }
+        return builder;
+    }
+
+    protected static boolean stringEquals(ByteBuffer buffer, int position, CharSequence value) {
+        int length = buffer.get(position) & 0xff;
+        if (length != value.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if ((char) (buffer.get(position + 1 + i) & 0xff) != value.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package week04.data;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import test.AbstractTestCase;
+import week04.app.Account;
+import week04.app.User;
+
+/**
+ * Tests the OffHeapUserStore and OffHeapAccountStore classes
+ *
+ */
+public class OffHeapStoreTestCase extends AbstractTestCase
+{
+	private static final int USERS = 1000000;
+
+	public OffHeapStoreTestCase()
+	{
+		super("OffHeapStoreTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testUserStore();
+			boolean test2 = testAccountStore();
+			boolean test3 = testMappedFile();
+
+			result = test1 && test2 && test3;
+		}
+		catch(Exception ex)
+		{
+			trace("TestOffHeapStore: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testUserStore() throws AtmDataException
+	{
+		trace(String.format("Testing %d off-heap users", USERS));
+		boolean result = true;
+
+		long heapBefore = usedHeap();
+		OffHeapUserStore store = new OffHeapUserStore();
+		for(long id = 1; id <= USERS; id++)
+		{
+			store.put(id, "First" + (id % 1000), "Last" + (id % 5000));
+		}
+		long heapAfter = usedHeap();
+
+		trace(String.format("Heap grew %.1f MB for %d users, %.1f MB stored off heap",
+				(heapAfter - heapBefore) / 1e6, store.size(), store.getOffHeapBytes() / 1e6));
+
+		OffHeapUserStore.View view = store.newView();
+		for(long id = 1; id <= USERS; id += 997)
+		{
+			if( !view.moveTo(id) || view.getUserId() != id || !view.lastNameEquals("Last" + (id % 5000)) )
+			{
+				trace(" *** Wrong record for user " + id);
+				result = false;
+				break;
+			}
+		}
+
+		store.put(new User(42, "Replaced", "User"));
+		view.moveTo(42);
+		if( store.size() != USERS || !view.toUser().equals(new User(42, "Replaced", "User")) )
+		{
+			trace(" *** Replacing a user failed");
+			result = false;
+		}
+
+		if( view.moveTo(USERS + 1) )
+		{
+			trace(" *** Found a user that was never stored");
+			result = false;
+		}
+		store.close();
+		return result;
+	}
+
+	private boolean testAccountStore() throws AtmDataException
+	{
+		trace("Testing off-heap accounts");
+		boolean result = true;
+
+		OffHeapAccountStore store = new OffHeapAccountStore();
+		long expectedSum = 0;
+		for(long id = 1; id <= USERS; id++)
+		{
+			long balance = id * 3 - 1000;
+			store.put(id, id / 2 + 1, "Checking", balance);
+			expectedSum += balance;
+		}
+
+		if( store.sumBalances() != expectedSum )
+		{
+			trace(" *** Wrong balance total");
+			result = false;
+		}
+
+		OffHeapAccountStore.View view = store.newView();
+		view.moveTo(10);
+		view.setBalanceMinor(view.getBalanceMinor() + 500);
+		Account account = view.toAccount(new User(view.getUserId(), "First", "Last"));
+		if( account.getBalanceMinor() != 10 * 3 - 1000 + 500 || !account.getName().equals("Checking") )
+		{
+			trace(" *** Wrong account copied: " + account.toString());
+			result = false;
+		}
+		store.close();
+		return result;
+	}
+
+	private boolean testMappedFile() throws Exception
+	{
+		trace("Testing memory-mapped user store");
+		boolean result = true;
+
+		File file = File.createTempFile("users", ".dat");
+		file.deleteOnExit();
+		Path path = file.toPath();
+
+		OffHeapUserStore store = new OffHeapUserStore(path);
+		store.put(new User(7, "Mapped", "User"));
+		OffHeapUserStore.View view = store.newView();
+		if( !view.moveTo(7) || !view.getFirstName().equals("Mapped") )
+		{
+			trace(" *** Mapped store lost a user");
+			result = false;
+		}
+		store.close();
+		return result;
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
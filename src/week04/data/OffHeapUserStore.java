@@ -0,0 +1,144 @@
+package week04.data;
+
+import week04.app.User;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Users stored off the heap in fixed layout records:
+ * id (8 bytes), first name (46 bytes), last name (46 bytes).
+ *
+ * Read records through a View, which reads fields straight from the buffer
+ * without creating a User.
+ */
+public class OffHeapUserStore extends OffHeapRecordStore {
+
+    private static final int ID = 0;
+    private static final int FIRST_NAME = ID + 8;
+    private static final int LAST_NAME = FIRST_NAME + STRING_BYTES;
+    private static final int RECORD_SIZE = LAST_NAME + STRING_BYTES;
+
+    /**
+     * Store records in direct memory
+     *
+     * @throws AtmDataException
+     */
+    public OffHeapUserStore() throws AtmDataException {
+        super(RECORD_SIZE, null);
+    }
+
+    /**
+     * Store records in a memory-mapped file, replacing its contents
+     *
+     * @param file - backing file
+     * @throws AtmDataException - the file could not be opened
+     */
+    public OffHeapUserStore(Path file) throws AtmDataException {
+        super(RECORD_SIZE, file);
+    }
+
+    /**
+     * Add or replace a user
+     *
+     * @param id    - user id
+     * @param first - first name, at most 45 characters
+     * @param last  - last name, at most 45 characters
+     */
+    public void put(long id, String first, String last) {
+        long offset = allocate(id);
+        ByteBuffer buffer = segment(offset);
+        int position = position(offset);
+        buffer.putLong(position + ID, id);
+        putString(buffer, position + FIRST_NAME, first);
+        putString(buffer, position + LAST_NAME, last);
+    }
+
+    /**
+     * @param user - user to add or replace
+     */
+    public void put(User user) {
+        put(user.getUserId(), user.getFirstName(), user.getLastName());
+    }
+
+    /**
+     * @param id - user id
+     * @return - true if the user is stored
+     */
+    public boolean contains(long id) {
+        return offsetOf(id) >= 0;
+    }
+
+    /**
+     * @return - a view that is not positioned on any record yet
+     */
+    public View newView() {
+        return new View();
+    }
+
+    /**
+     * Flyweight over one stored user. Reuse a view for many lookups; it is not
+     * thread safe, so use one per thread.
+     */
+    public final class View {
+        private ByteBuffer m_buffer;
+        private int m_position = -1;
+
+        private View() {
+        }
+
+        /**
+         * @param id - user id
+         * @return - true if the user exists and the view now points at it
+         */
+        public boolean moveTo(long id) {
+            long offset = offsetOf(id);
+            if (offset < 0) return false;
+            point(offset);
+            return true;
+        }
+
+        /**
+         * @param record - record number, 0 to size() - 1, for scanning every user
+         */
+        public void moveToRecord(int record) {
+            point(offsetOfRecord(record));
+        }
+
+        private void point(long offset) {
+            m_buffer = segment(offset);
+            m_position = position(offset);
+        }
+
+        public long getUserId() {
+            return m_buffer.getLong(m_position + ID);
+        }
+
+        public String getFirstName() {
+            return getString(m_buffer, m_position + FIRST_NAME);
+        }
+
+        public String getLastName() {
+            return getString(m_buffer, m_position + LAST_NAME);
+        }
+
+        public StringBuilder appendFirstName(StringBuilder builder) {
+            return appendString(builder, m_buffer, m_position + FIRST_NAME);
+        }
+
+        public StringBuilder appendLastName(StringBuilder builder) {
+            return appendString(builder, m_buffer, m_position + LAST_NAME);
+        }
+
+        public boolean lastNameEquals(CharSequence name) {
+            return stringEquals(m_buffer, m_position + LAST_NAME, name);
+        }
+
+        /**
+         * @return - a new User copied from the record
+         */
+        public User toUser() {
+            return new User(getUserId(), getFirstName(), getLastName());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package week04.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a ResultSet to an object.
+ *
+ * Implementations resolve their column indexes once, when they are created for a
+ * result set, and read every row by index. Reading by column name makes the
+ * driver look the name up again for every column of every row.
+ *
+ * @param <T> - User or Account
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * @param resultSet - positioned on the row to map
+     * @return - object holding the row's values
+     * @throws SQLException
+     */
+    T map(ResultSet resultSet) throws SQLException;
+}
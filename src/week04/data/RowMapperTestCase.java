@@ -0,0 +1,321 @@
+package week04.data;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import test.AbstractTestCase;
+import week04.app.Account;
+import week04.app.User;
+
+/**
+ * Tests the row mappers and IdentityScope against an in memory result set
+ *
+ */
+public class RowMapperTestCase extends AbstractTestCase
+{
+	private static final int ROWS = 1000000;
+	private static final int ACCOUNTS = 200000;
+	private static final int OWNERS = 2000;
+
+	public RowMapperTestCase()
+	{
+		super("RowMapperTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testAccountMapping();
+			boolean test2 = testColumnsResolvedOnce();
+			boolean test3 = testAccountsShareOwners();
+			boolean test4 = testNestedScopes();
+			boolean test5 = testLazyOwners();
+
+			result = test1 && test2 && test3 && test4 && test5;
+		}
+		catch(Exception ex)
+		{
+			trace("TestRowMapper: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testAccountMapping() throws SQLException
+	{
+		trace("Testing account and owner mapping from a joined row");
+		// same column order as DataAccess.SELECT_ACCOUNTS_SQL
+		InMemoryResultSet rows = new InMemoryResultSet(
+				new String[] { "id", "user_id", "name", "balance", "first_name", "last_name" }, 1);
+		rows.m_rows[0] = new Object[] { 7L, 3L, "Savings", new BigDecimal("12.34"), "Jane", "Doe" };
+
+		ResultSet resultSet = rows.proxy();
+		AccountRowMapper mapper = new AccountRowMapper(resultSet, IdentityScope.forQuery(null));
+		resultSet.next();
+		Account account = mapper.map(resultSet);
+
+		if( account.getAccountId() != 7 || !account.getName().equals("Savings") || account.getBalanceMinor() != 1234
+				|| account.getUser().getUserId() != 3 || !account.getUser().getFirstName().equals("Jane")
+				|| !account.getUser().getLastName().equals("Doe") )
+		{
+			trace(" *** Mapped " + account + " owned by " + account.getUser());
+			return false;
+		}
+		return true;
+	}
+
+	private boolean testColumnsResolvedOnce() throws SQLException
+	{
+		trace(String.format("Testing name lookups while mapping %d users", ROWS));
+		boolean result = true;
+
+		InMemoryResultSet rows = new InMemoryResultSet(new String[] { "id", "first_name", "last_name" }, ROWS);
+		for(int i = 0; i < ROWS; i++)
+		{
+			rows.m_rows[i] = new Object[] { (long) i + 1, "First" + (i % 100), "Last" + (i % 1000) };
+		}
+
+		// reading by name, as DataAccess did before the row mappers
+		ResultSet resultSet = rows.proxy();
+		List<User> byName = new ArrayList<User>(ROWS);
+		long start = System.nanoTime();
+		while( resultSet.next() )
+		{
+			byName.add(new User(resultSet.getLong("id"), resultSet.getString("first_name"),
+					resultSet.getString("last_name")));
+		}
+		long byNameNanos = System.nanoTime() - start;
+		long byNameLookups = rows.m_nameLookups;
+
+		rows.rewind();
+		resultSet = rows.proxy();
+		List<User> byIndex = new ArrayList<User>(ROWS);
+		start = System.nanoTime();
+		UserRowMapper mapper = new UserRowMapper(resultSet);
+		while( resultSet.next() )
+		{
+			byIndex.add(mapper.map(resultSet));
+		}
+		long byIndexNanos = System.nanoTime() - start;
+
+		trace(String.format("By name: %d lookups, %.1f ns per row; by index: %d lookups, %.1f ns per row",
+				byNameLookups, (double) byNameNanos / ROWS, rows.m_nameLookups, (double) byIndexNanos / ROWS));
+
+		if( rows.m_nameLookups != 3 )
+		{
+			trace(" *** Expected 3 column lookups per result set, found " + rows.m_nameLookups);
+			result = false;
+		}
+		if( !byIndex.equals(byName) )
+		{
+			trace(" *** Mapped users differ from the ones read by name");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testAccountsShareOwners() throws SQLException
+	{
+		trace(String.format("Testing %d accounts owned by %d users", ACCOUNTS, OWNERS));
+		boolean result = true;
+
+		InMemoryResultSet rows = new InMemoryResultSet(
+				new String[] { "id", "user_id", "name", "balance", "first_name", "last_name" }, ACCOUNTS);
+		for(int i = 0; i < ACCOUNTS; i++)
+		{
+			long owner = i % OWNERS + 1;
+			rows.m_rows[i] = new Object[] { (long) i + 1, owner, "Account" + i, BigDecimal.TEN, "First" + owner,
+					"Last" + owner };
+		}
+
+		ResultSet resultSet = rows.proxy();
+		IdentityScope scope = IdentityScope.forQuery(null);
+		AccountRowMapper mapper = new AccountRowMapper(resultSet, scope);
+		Set<User> owners = Collections.newSetFromMap(new IdentityHashMap<User, Boolean>());
+		while( resultSet.next() )
+		{
+			owners.add(mapper.map(resultSet).getUser());
+		}
+		trace(String.format("%d User instances for %d accounts", owners.size(), ACCOUNTS));
+
+		if( owners.size() != OWNERS || scope.size() != OWNERS )
+		{
+			trace(" *** Expected one User per owner, found " + owners.size());
+			result = false;
+		}
+		if( scope.get(5) == null || !scope.get(5).getFirstName().equals("First5") )
+		{
+			trace(" *** Scope does not hold owner 5");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testNestedScopes()
+	{
+		trace("Testing nested identity scopes");
+		boolean result = true;
+		DataAccess dataAccess = DataAccess.getInstance();
+
+		try( IdentityScope outer = dataAccess.openScope() )
+		{
+			outer.add(new User(1, "John", "Smith"));
+			try( IdentityScope inner = dataAccess.openScope() )
+			{
+				if( inner != outer )
+				{
+					trace(" *** Nested scope did not join the open one");
+					result = false;
+				}
+			}
+			if( outer.get(1) == null )
+			{
+				trace(" *** Closing the nested scope ended the outer one");
+				result = false;
+			}
+		}
+
+		try( IdentityScope next = dataAccess.openScope() )
+		{
+			if( next.size() != 0 )
+			{
+				trace(" *** Closed scope still open on the thread");
+				result = false;
+			}
+		}
+		return result;
+	}
+
+	private boolean testLazyOwners() throws SQLException
+	{
+		trace(String.format("Testing lazy owners of %d accounts", ACCOUNTS));
+		boolean result = true;
+
+		// same columns as DataAccess.SELECT_ACCOUNT_COLUMNS_SQL, no owner names
+		InMemoryResultSet rows = new InMemoryResultSet(new String[] { "id", "user_id", "name", "balance" }, ACCOUNTS);
+		for(int i = 0; i < ACCOUNTS; i++)
+		{
+			rows.m_rows[i] = new Object[] { (long) i + 1, (long) (i % OWNERS + 1), "Account" + i, BigDecimal.ONE };
+		}
+
+		List<Collection<Long>> batches = new ArrayList<Collection<Long>>();
+		IdentityScope scope = IdentityScope.forQuery(ids -> {
+			batches.add(ids);
+			List<User> users = new ArrayList<User>();
+			for(long id : ids)
+			{
+				// the last owner has been removed
+				if( id != OWNERS )
+				{
+					users.add(new User(id, "First" + id, "Last" + id));
+				}
+			}
+			return users;
+		});
+
+		ResultSet resultSet = rows.proxy();
+		AccountRowMapper mapper = new AccountRowMapper(resultSet, scope, true);
+		List<Account> accounts = new ArrayList<Account>(ACCOUNTS);
+		long total = 0;
+		while( resultSet.next() )
+		{
+			Account account = mapper.map(resultSet);
+			accounts.add(account);
+			total += account.getBalanceMinor();
+		}
+		if( total != ACCOUNTS * 100L || !batches.isEmpty() || scope.getPendingCount() != OWNERS )
+		{
+			trace(" *** Balance total " + total + " loaded " + batches.size() + " batches of owners");
+			result = false;
+		}
+
+		Set<User> owners = Collections.newSetFromMap(new IdentityHashMap<User, Boolean>());
+		for(Account account : accounts)
+		{
+			if( account.getUser() != null )
+			{
+				owners.add(account.getUser());
+			}
+		}
+		trace(String.format("%d batch loaded %d owners", batches.size(), owners.size()));
+
+		if( batches.size() != 1 || batches.get(0).size() != OWNERS || owners.size() != OWNERS - 1 )
+		{
+			trace(" *** Expected one batch of " + OWNERS + " owners");
+			result = false;
+		}
+		Account first = accounts.get(0);
+		if( first.getUser().getUserId() != 1 || !first.getUser().getFirstName().equals("First1")
+				|| accounts.get(OWNERS - 1).getUser() != null || accounts.get(OWNERS - 1).getUserId() != OWNERS )
+		{
+			trace(" *** Wrong owner loaded for " + first + " or the removed owner");
+			result = false;
+		}
+		return result;
+	}
+
+	/** Rows held in arrays; column labels are matched ignoring case, as the MySQL driver does */
+	private static class InMemoryResultSet
+	{
+		private final String[] m_labels;
+		private final Object[][] m_rows;
+		private int m_row = -1;
+		private long m_nameLookups = 0;
+
+		InMemoryResultSet(String[] labels, int rows)
+		{
+			m_labels = labels;
+			m_rows = new Object[rows][];
+		}
+
+		void rewind()
+		{
+			m_row = -1;
+			m_nameLookups = 0;
+		}
+
+		ResultSet proxy()
+		{
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+					new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+						if( method.getName().equals("next") )
+						{
+							return ++m_row < m_rows.length;
+						}
+						if( method.getName().equals("findColumn") )
+						{
+							return findColumn((String) args[0]);
+						}
+						if( method.getName().startsWith("get") && args != null && args.length == 1 )
+						{
+							int column = args[0] instanceof String ? findColumn((String) args[0]) : (Integer) args[0];
+							return m_rows[m_row][column - 1];
+						}
+						throw new UnsupportedOperationException(method.getName());
+					});
+		}
+
+		private int findColumn(String label) throws SQLException
+		{
+			m_nameLookups++;
+			for(int i = 0; i < m_labels.length; i++)
+			{
+				if( m_labels[i].equalsIgnoreCase(label) )
+				{
+					return i + 1;
+				}
+			}
+			throw new SQLException("No column " + label);
+		}
+	}
+}
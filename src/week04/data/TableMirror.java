@@ -0,0 +1,173 @@
+package week04.data;
+
+import week04.util.ConcurrentLongObjectMap;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory copy of the user or account table, kept current by polling only the
+ * rows whose last_update moved.
+ *
+ * The first refresh loads every row. Later refreshes ask for rows changed since
+ * the newest last_update seen so far, minus an overlap window: last_update is
+ * stamped before the writing transaction commits, so a slow transaction can
+ * become visible with an older stamp than rows already read. Rows read twice are
+ * simply stored again. Each refresh therefore costs the changes of the last poll
+ * plus the overlap window, not the table size.
+ *
+ * Removed rows carry no last_update and are not seen by a refresh; resync()
+ * reloads the whole table to drop them.
+ *
+ * Reads are lock free and safe from any thread while a refresh runs.
+ *
+ * @param <T> - User or Account
+ */
+public class TableMirror<T> implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(TableMirror.class.getName());
+
+    private final String m_name;
+    private final ChangeSource<T> m_source;
+    private final ToLongFunction<T> m_idOf;
+    private final long m_overlapMillis;
+
+    private volatile ConcurrentLongObjectMap<T> m_rows = new ConcurrentLongObjectMap<>();
+
+    // guarded by this
+    private Instant m_watermark = null;
+    private ScheduledExecutorService m_poller = null;
+    private volatile int m_lastRefreshRows = 0;
+    private volatile long m_refreshes = 0;
+
+    /**
+     * @param name          - name for the poller thread and log messages, e.g. "user"
+     * @param source        - changed rows, e.g. DataAccess::getUsersModifiedSince
+     * @param idOf          - id of a row, e.g. User::getUserId
+     * @param overlapMillis - how far before the newest change each refresh starts reading
+     */
+    public TableMirror(String name, ChangeSource<T> source, ToLongFunction<T> idOf, long overlapMillis) {
+        m_name = name;
+        m_source = source;
+        m_idOf = idOf;
+        m_overlapMillis = overlapMillis;
+    }
+
+    /**
+     * Read the rows changed since the last refresh into the mirror
+     *
+     * @return - rows read
+     * @throws AtmDataException - the mirror is unchanged and the next refresh retries
+     */
+    public synchronized int refresh() throws AtmDataException {
+        Instant since = m_watermark == null ? Instant.EPOCH : m_watermark.minusMillis(m_overlapMillis);
+        ChangeSet<T> changes = m_source.getModifiedSince(since);
+
+        ConcurrentLongObjectMap<T> rows = m_rows;
+        for (T row : changes.getChanged()) {
+            rows.put(m_idOf.applyAsLong(row), row);
+        }
+        Instant latest = changes.getLatestUpdate();
+        if (latest != null && (m_watermark == null || latest.isAfter(m_watermark))) {
+            m_watermark = latest;
+        }
+
+        m_lastRefreshRows = changes.getChanged().size();
+        m_refreshes++;
+        return m_lastRefreshRows;
+    }
+
+    /**
+     * Reload the whole table, dropping rows that were removed. Readers keep seeing the
+     * old copy until the new one is complete.
+     *
+     * @return - rows loaded
+     * @throws AtmDataException - the old copy is kept
+     */
+    public synchronized int resync() throws AtmDataException {
+        ChangeSet<T> all = m_source.getModifiedSince(Instant.EPOCH);
+
+        ConcurrentLongObjectMap<T> rows = new ConcurrentLongObjectMap<>(16, all.getChanged().size());
+        for (T row : all.getChanged()) {
+            rows.put(m_idOf.applyAsLong(row), row);
+        }
+        m_rows = rows;
+        m_watermark = all.getLatestUpdate();
+        m_lastRefreshRows = all.getChanged().size();
+        m_refreshes++;
+        return m_lastRefreshRows;
+    }
+
+    /**
+     * Refresh on a background thread every intervalMillis. Failed refreshes are
+     * logged and retried on the next poll.
+     *
+     * @param intervalMillis - time between the end of one refresh and the start of the next
+     */
+    public synchronized void start(long intervalMillis) {
+        if (m_poller != null) throw new IllegalStateException("Mirror " + m_name + " is already started");
+
+        m_poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "atm-mirror-" + m_name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_poller.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (AtmDataException | RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Mirror " + m_name + " refresh failed, will retry", ex);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param id - row id
+     * @return - mirrored row, null if there is none
+     */
+    public T get(long id) {
+        return m_rows.get(id);
+    }
+
+    /**
+     * @return - every mirrored row, in no particular order
+     */
+    public List<T> values() {
+        return m_rows.values();
+    }
+
+    public int size() {
+        return m_rows.size();
+    }
+
+    /**
+     * @return - rows read by the most recent refresh or resync
+     */
+    public int getLastRefreshRows() {
+        return m_lastRefreshRows;
+    }
+
+    /**
+     * @return - refreshes and resyncs completed
+     */
+    public long getRefreshCount() {
+        return m_refreshes;
+    }
+
+    /**
+     * Stop polling. The mirrored rows stay readable.
+     */
+    @Override
+    public synchronized void close() {
+        if (m_poller != null) {
+            m_poller.shutdownNow();
+            m_poller = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package week04.data;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import test.AbstractTestCase;
+import week04.app.User;
+
+/**
+ * Tests the TableMirror class against an in memory user table
+ *
+ */
+public class TableMirrorTestCase extends AbstractTestCase
+{
+	private static final int USERS = 10000;
+
+	public TableMirrorTestCase()
+	{
+		super("TableMirrorTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testRefreshReadsOnlyChanges();
+			boolean test2 = testLateCommitInsideOverlap();
+
+			result = test1 && test2;
+		}
+		catch(Exception ex)
+		{
+			trace("TestTableMirror: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testRefreshReadsOnlyChanges() throws Exception
+	{
+		trace("Testing refreshes of " + USERS + " users");
+		boolean result = true;
+
+		InMemoryUsers table = new InMemoryUsers();
+		for(int i = 1; i <= USERS; i++)
+		{
+			table.save(new User(i, "First" + i, "Last" + i), 1000 + i);
+		}
+
+		TableMirror<User> mirror = new TableMirror<User>("user", table, User::getUserId, 0);
+		int loaded = mirror.refresh();
+
+		table.save(new User(5, "Changed", "Last5"), 20000);
+		table.save(new User(USERS + 1, "New", "User"), 20001);
+		int changed = mirror.refresh();
+		trace(String.format("First refresh read %d rows, second read %d", loaded, changed));
+
+		if( loaded != USERS || mirror.size() != USERS + 1 )
+		{
+			trace(" *** Mirror holds " + mirror.size() + " users after loading " + loaded);
+			result = false;
+		}
+		// the newest row is read again because the poll starts at the newest change seen
+		if( changed > 3 || !mirror.get(5).getFirstName().equals("Changed") )
+		{
+			trace(" *** Second refresh read " + changed + " rows or missed the change");
+			result = false;
+		}
+
+		table.remove(7);
+		mirror.resync();
+		if( mirror.get(7) != null || mirror.size() != USERS )
+		{
+			trace(" *** Removed user still mirrored after resync");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testLateCommitInsideOverlap() throws Exception
+	{
+		trace("Testing a change that becomes visible with an older timestamp");
+		InMemoryUsers table = new InMemoryUsers();
+		table.save(new User(1, "A", "One"), 5000);
+		TableMirror<User> mirror = new TableMirror<User>("user", table, User::getUserId, 1000);
+		mirror.refresh();
+
+		// stamped before the newest row the mirror has seen, committed after it was read
+		table.save(new User(2, "B", "Two"), 4500);
+		mirror.refresh();
+
+		if( mirror.get(2) == null )
+		{
+			trace(" *** Late commit inside the overlap window was missed");
+			return false;
+		}
+		return true;
+	}
+
+	/** User rows with a last_update in millis; getModifiedSince scans them like an index range */
+	private static class InMemoryUsers implements ChangeSource<User>
+	{
+		private final List<User> m_users = new ArrayList<User>();
+		private final List<Long> m_updates = new ArrayList<Long>();
+
+		void save(User user, long lastUpdate)
+		{
+			remove(user.getUserId());
+			m_users.add(user);
+			m_updates.add(lastUpdate);
+		}
+
+		void remove(long id)
+		{
+			for(int i = 0; i < m_users.size(); i++)
+			{
+				if( m_users.get(i).getUserId() == id )
+				{
+					m_users.remove(i);
+					m_updates.remove(i);
+					return;
+				}
+			}
+		}
+
+		@Override
+		public ChangeSet<User> getModifiedSince(Instant since)
+		{
+			List<User> changed = new ArrayList<User>();
+			long latest = -1;
+			for(int i = 0; i < m_users.size(); i++)
+			{
+				if( m_updates.get(i) >= since.toEpochMilli() )
+				{
+					changed.add(m_users.get(i));
+					latest = Math.max(latest, m_updates.get(i));
+				}
+			}
+			return new ChangeSet<User>(changed, latest < 0 ? null : Instant.ofEpochMilli(latest));
+		}
+	}
+}
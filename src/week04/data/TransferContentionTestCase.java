@@ -0,0 +1,139 @@
+package week04.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.AbstractTestCase;
+import week04.app.Account;
+import week04.app.User;
+
+/**
+ * Contention benchmark for DataAccess.transfer. Many threads move money back
+ * and forth among a few accounts; reports commits per second and the retry
+ * rate, and checks that no money was created or lost.
+ *
+ */
+public class TransferContentionTestCase extends AbstractTestCase
+{
+	private static final int THREADS = 32;
+	private static final int TRANSFERS_PER_THREAD = 100;
+	private static final int ACCOUNTS = 4;
+	private static final long OPENING_BALANCE = 1000000;
+
+	public TransferContentionTestCase()
+	{
+		super("TransferContentionTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		DataAccess da = null;
+		try
+		{
+			da = DataAccess.getInstance();
+			da.connect();
+			result = testContendedTransfers(da);
+		}
+		catch(Exception ex)
+		{
+			trace("TestTransferContention: Unexpected error in runTest: " + ex.getMessage());
+		}
+		finally
+		{
+			if(da != null)
+				da.close();
+		}
+		return result;
+	}
+
+	private boolean testContendedTransfers(final DataAccess da) throws Exception
+	{
+		trace(String.format("Testing %d threads x %d transfers among %d accounts",
+				THREADS, TRANSFERS_PER_THREAD, ACCOUNTS));
+		boolean result = true;
+
+		User owner = da.saveUser(new User("Transfer", "Contention"));
+		final List<Account> accounts = new ArrayList<Account>();
+		for(int i = 0; i < ACCOUNTS; i++)
+		{
+			Account account = new Account(-1, owner, "Contention " + i, 0.0);
+			account.setBalanceMinor(OPENING_BALANCE);
+			accounts.add(da.saveAccount(account));
+		}
+
+		DataAccess.TransferStats before = da.getTransferStats();
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++)
+		{
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(int i = 0; i < TRANSFERS_PER_THREAD; i++)
+					{
+						int from = random.nextInt(ACCOUNTS);
+						int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+						try
+						{
+							da.transfer(accounts.get(from).getAccountId(), accounts.get(to).getAccountId(),
+									1 + random.nextInt(100));
+						}
+						catch(AtmDataException ex)
+						{
+							failures.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		DataAccess.TransferStats after = da.getTransferStats();
+		long commits = after.getCommits() - before.getCommits();
+		long retries = after.getRetries() - before.getRetries();
+		trace(String.format("%d commits in %.2f s: %.0f commits/sec, %.3f retries per commit, %d abandoned",
+				commits, seconds, commits / seconds, commits == 0 ? 0.0 : (double) retries / commits,
+				after.getConflicts() - before.getConflicts()));
+
+		long total = 0;
+		for(Account account : accounts)
+		{
+			total += da.getAccountById(account.getAccountId()).getBalanceMinor();
+		}
+		if( total != OPENING_BALANCE * ACCOUNTS )
+		{
+			trace(" *** Balances add up to " + total + ", expected " + OPENING_BALANCE * ACCOUNTS);
+			result = false;
+		}
+		if( commits + failures.get() != THREADS * TRANSFERS_PER_THREAD )
+		{
+			trace(" *** " + commits + " commits and " + failures.get() + " failures for "
+					+ THREADS * TRANSFERS_PER_THREAD + " transfers");
+			result = false;
+		}
+
+		for(Account account : accounts)
+		{
+			da.removeAccount(account);
+		}
+		da.removeUser(owner);
+		return result;
+	}
+}
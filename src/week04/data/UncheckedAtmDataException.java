@@ -0,0 +1,25 @@
+package week04.data;
+
+/**
+ * Carries an AtmDataException out of code that cannot throw checked exceptions,
+ * such as the Stream returned by DataAccess.streamUsers().
+ */
+public class UncheckedAtmDataException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param cause - the data access failure
+     */
+    public UncheckedAtmDataException(AtmDataException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * @return - the data access failure
+     */
+    @Override
+    public synchronized AtmDataException getCause() {
+        return (AtmDataException) super.getCause();
+    }
+}
@@ -0,0 +1,20 @@
+package week04.data;
+
+import week04.app.User;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Loads many users by id at once. IdentityScope uses it to resolve lazily loaded
+ * account owners; DataAccess::getUsersByIds is the database implementation.
+ */
+public interface UserBatchLoader {
+
+    /**
+     * @param ids - user ids, without duplicates
+     * @return - the users found, in no particular order; missing ids are left out
+     * @throws AtmDataException
+     */
+    List<User> loadUsers(Collection<Long> ids) throws AtmDataException;
+}
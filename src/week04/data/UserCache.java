@@ -0,0 +1,191 @@
+package week04.data;
+
+import week04.app.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used cache of users by id, used by DataAccess.getUserById.
+ *
+ * Entries expire after the time to live. Users are copied going in and coming out
+ * so a caller modifying its User cannot change the cached one.
+ */
+public class UserCache {
+
+    private final int m_maxEntries;
+    private final long m_ttlMillis;
+    private final LinkedHashMap<Long, Entry> m_entries;
+
+    // bumped by every write so a load that raced with a write does not cache stale data
+    private long m_generation = 0;
+
+    private long m_hits = 0;
+    private long m_misses = 0;
+    private long m_evictions = 0;
+
+    /**
+     * @param maxEntries - number of users kept before the least recently used is evicted
+     * @param ttlMillis  - how long an entry stays valid, 0 for no expiry
+     */
+    public UserCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+
+        m_maxEntries = maxEntries;
+        m_ttlMillis = ttlMillis;
+        m_entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > m_maxEntries) {
+                    m_evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param id - user id
+     * @return - copy of the cached user, null on a miss
+     */
+    public synchronized User get(long id) {
+        Entry entry = m_entries.get(id);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            m_entries.remove(id);
+            entry = null;
+        }
+
+        if (entry == null) {
+            m_misses++;
+            return null;
+        }
+        m_hits++;
+        return copy(entry.m_user);
+    }
+
+    /**
+     * @return - token to pass to putLoaded, taken before reading from the database
+     */
+    public synchronized long getGeneration() {
+        return m_generation;
+    }
+
+    /**
+     * Cache a user read from the database, unless a write happened since the read started
+     *
+     * @param user       - user read from the database
+     * @param generation - value of getGeneration() before the read
+     */
+    public synchronized void putLoaded(User user, long generation) {
+        if (generation == m_generation) {
+            m_entries.put(user.getUserId(), new Entry(copy(user), expiry()));
+        }
+    }
+
+    /**
+     * Cache a user that was just written to the database
+     *
+     * @param user - saved user
+     */
+    public synchronized void put(User user) {
+        m_generation++;
+        m_entries.put(user.getUserId(), new Entry(copy(user), expiry()));
+    }
+
+    /**
+     * Drop a user that was removed from the database
+     *
+     * @param id - user id
+     */
+    public synchronized void invalidate(long id) {
+        m_generation++;
+        m_entries.remove(id);
+    }
+
+    /**
+     * Drop every entry
+     */
+    public synchronized void clear() {
+        m_generation++;
+        m_entries.clear();
+    }
+
+    /**
+     * @return - a snapshot of the cache counters
+     */
+    public synchronized Stats getStats() {
+        return new Stats(m_entries.size(), m_hits, m_misses, m_evictions);
+    }
+
+    private long expiry() {
+        return m_ttlMillis > 0 ? System.currentTimeMillis() + m_ttlMillis : Long.MAX_VALUE;
+    }
+
+    private static User copy(User user) {
+        return new User(user.getUserId(), user.getFirstName(), user.getLastName());
+    }
+
+    private static final class Entry {
+        private final User m_user;
+        private final long m_expiresAt;
+
+        private Entry(User user, long expiresAt) {
+            m_user = user;
+            m_expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= m_expiresAt;
+        }
+    }
+
+    /**
+     * Point in time view of the cache counters
+     */
+    public static final class Stats {
+        private final int m_size;
+        private final long m_hits;
+        private final long m_misses;
+        private final long m_evictions;
+
+        private Stats(int size, long hits, long misses, long evictions) {
+            m_size = size;
+            m_hits = hits;
+            m_misses = misses;
+            m_evictions = evictions;
+        }
+
+        public int getSize() {
+            return m_size;
+        }
+
+        public long getHits() {
+            return m_hits;
+        }
+
+        public long getMisses() {
+            return m_misses;
+        }
+
+        public long getEvictions() {
+            return m_evictions;
+        }
+
+        /**
+         * @return - fraction of lookups answered from the cache
+         */
+        public double getHitRatio() {
+            long lookups = m_hits + m_misses;
+            return lookups == 0 ? 0.0 : (double) m_hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d hits=%d misses=%d evictions=%d hitRatio=%.2f",
+                    m_size, m_hits, m_misses, m_evictions, getHitRatio());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package week04.data;
+
+import test.AbstractTestCase;
+import week04.app.User;
+
+/**
+ * Tests the UserCache class
+ *
+ */
+public class UserCacheTestCase extends AbstractTestCase
+{
+	public UserCacheTestCase()
+	{
+		super("UserCacheTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result1 = testEviction();
+		boolean result2 = testExpiry();
+		boolean result3 = testStaleLoad();
+
+		return result1 && result2 && result3;
+	}
+
+	private boolean testEviction()
+	{
+		trace("Testing least recently used eviction");
+		boolean result = true;
+
+		UserCache cache = new UserCache(2, 0);
+		cache.put(new User(1, "One", "User"));
+		cache.put(new User(2, "Two", "User"));
+
+		// touch 1 so that 2 is the least recently used
+		cache.get(1);
+		cache.put(new User(3, "Three", "User"));
+
+		if(cache.get(2) != null)
+		{
+			trace(" *** Least recently used user was not evicted");
+			result = false;
+		}
+		if(cache.get(1) == null || cache.get(3) == null)
+		{
+			trace(" *** Recently used users were evicted");
+			result = false;
+		}
+
+		// callers get copies
+		User cached = cache.get(1);
+		cached.setFirstName("Changed");
+		if(!cache.get(1).getFirstName().equals("One"))
+		{
+			trace(" *** Cached user changed through a returned copy");
+			result = false;
+		}
+
+		UserCache.Stats stats = cache.getStats();
+		trace(stats.toString());
+		if(stats.getEvictions() != 1 || stats.getMisses() != 1 || stats.getHits() != 5)
+		{
+			trace(" *** Unexpected cache counters");
+			result = false;
+		}
+
+		return result;
+	}
+
+	private boolean testExpiry()
+	{
+		trace("Testing time to live");
+		boolean result = true;
+
+		UserCache cache = new UserCache(10, 20);
+		cache.put(new User(1, "One", "User"));
+		try
+		{
+			Thread.sleep(50);
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if(cache.get(1) != null)
+		{
+			trace(" *** Expired user returned");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testStaleLoad()
+	{
+		trace("Testing a load racing with a write");
+		boolean result = true;
+
+		UserCache cache = new UserCache(10, 0);
+		long generation = cache.getGeneration();
+
+		// a write lands while the load is reading the old row
+		cache.invalidate(1);
+		cache.putLoaded(new User(1, "Old", "User"), generation);
+
+		if(cache.get(1) != null)
+		{
+			trace(" *** Stale load was cached");
+			result = false;
+		}
+		return result;
+	}
+}
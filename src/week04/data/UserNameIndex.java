@@ -0,0 +1,155 @@
+package week04.data;
+
+import week04.app.User;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of users by name for prefix search, used by
+ * DataAccess.findUsersByNamePrefix.
+ *
+ * Users are kept in two sorted skip lists, one keyed by last then first name and
+ * one by first then last name, compared case-insensitively. A prefix lookup is a
+ * seek to the prefix followed by a walk over at most limit entries, so it takes
+ * microseconds regardless of how many users are indexed.
+ *
+ * Lookups are lock free. Writes are serialized and keep both lists and the id
+ * map consistent.
+ */
+public class UserNameIndex {
+
+    // separates the parts of a key; sorts before every character a name can contain
+    private static final char SEPARATOR = '\u0000';
+
+    private final ConcurrentSkipListMap<String, User> m_byLastName = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, User> m_byFirstName = new ConcurrentSkipListMap<>();
+    private final Map<Long, User> m_byId = new ConcurrentHashMap<>();
+
+    // guarded by this; ids written while load() runs, so older loaded rows do not overwrite them
+    private Set<Long> m_writtenDuringLoad = null;
+    private volatile boolean m_loaded = false;
+
+    /**
+     * Fill the index with every user. Writes made while loading take precedence
+     * over the loaded rows.
+     *
+     * @param users - every user, e.g. DataAccess.streamUsers()
+     */
+    public void load(Stream<User> users) {
+        synchronized (this) {
+            m_writtenDuringLoad = new HashSet<>();
+        }
+        users.forEach(this::putLoaded);
+        synchronized (this) {
+            m_writtenDuringLoad = null;
+        }
+        m_loaded = true;
+    }
+
+    /**
+     * @return - true once load() has completed, so the index holds every user
+     */
+    public boolean isLoaded() {
+        return m_loaded;
+    }
+
+    /**
+     * Add or update a saved user
+     */
+    public synchronized void put(User user) {
+        if (m_writtenDuringLoad != null) m_writtenDuringLoad.add(user.getUserId());
+        replace(user);
+    }
+
+    /**
+     * Drop a removed user
+     */
+    public synchronized void remove(long id) {
+        if (m_writtenDuringLoad != null) m_writtenDuringLoad.add(id);
+        User old = m_byId.remove(id);
+        if (old != null) {
+            m_byLastName.remove(lastNameKey(old));
+            m_byFirstName.remove(firstNameKey(old));
+        }
+    }
+
+    /**
+     * Find users whose last name starts with the prefix, ordered by last then first
+     * name, followed by users whose first name starts with it, ordered by first then
+     * last name. Case is ignored.
+     *
+     * @param prefix - start of a last or first name
+     * @param limit  - maximum number of users to return, 0 or more
+     * @return - copies of the matching users
+     * @throws IllegalArgumentException - limit is negative
+     */
+    public List<User> findByPrefix(String prefix, int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must not be negative: " + limit);
+        List<User> found = new ArrayList<>(Math.min(limit, 64));
+        String from = normalize(prefix);
+        collect(m_byLastName, from, limit, found, null);
+        if (found.size() < limit) {
+            collect(m_byFirstName, from, limit, found, from);
+        }
+        return found;
+    }
+
+    public int size() {
+        return m_byId.size();
+    }
+
+    private synchronized void putLoaded(User user) {
+        if (m_writtenDuringLoad != null && m_writtenDuringLoad.contains(user.getUserId())) return;
+        replace(user);
+    }
+
+    private void replace(User user) {
+        User copy = new User(user.getUserId(), user.getFirstName(), user.getLastName());
+        User old = m_byId.put(copy.getUserId(), copy);
+        if (old != null) {
+            m_byLastName.remove(lastNameKey(old));
+            m_byFirstName.remove(firstNameKey(old));
+        }
+        m_byLastName.put(lastNameKey(copy), copy);
+        m_byFirstName.put(firstNameKey(copy), copy);
+    }
+
+    /**
+     * Walk the entries starting with the prefix. With skipLastNamePrefix set, users
+     * whose last name also matches were already collected from the other list.
+     */
+    private static void collect(ConcurrentSkipListMap<String, User> index, String prefix, int limit,
+                                List<User> found, String skipLastNamePrefix) {
+        ConcurrentNavigableMap<String, User> tail = index.tailMap(prefix, true);
+        for (Map.Entry<String, User> entry : tail.entrySet()) {
+            if (found.size() >= limit || !entry.getKey().startsWith(prefix)) return;
+
+            User user = entry.getValue();
+            if (skipLastNamePrefix != null && normalize(user.getLastName()).startsWith(skipLastNamePrefix)) continue;
+            found.add(new User(user.getUserId(), user.getFirstName(), user.getLastName()));
+        }
+    }
+
+    private static String lastNameKey(User user) {
+        return normalize(user.getLastName()) + SEPARATOR + normalize(user.getFirstName()) + SEPARATOR
+                + user.getUserId();
+    }
+
+    private static String firstNameKey(User user) {
+        return normalize(user.getFirstName()) + SEPARATOR + normalize(user.getLastName()) + SEPARATOR
+                + user.getUserId();
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,132 @@
+package week04.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import test.AbstractTestCase;
+import week04.app.User;
+
+/**
+ * Tests the UserNameIndex class: ordering, updates and lookup time with many users
+ *
+ */
+public class UserNameIndexTestCase extends AbstractTestCase
+{
+	private static final int USERS = 500000;
+	private static final int LOOKUPS = 100000;
+
+	public UserNameIndexTestCase()
+	{
+		super("UserNameIndexTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testOrderAndUpdates();
+			boolean test2 = testLookupTime();
+
+			result = test1 && test2;
+		}
+		catch(Exception ex)
+		{
+			trace("TestUserNameIndex: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testOrderAndUpdates()
+	{
+		trace("Testing prefix matches, order and updates");
+		boolean result = true;
+
+		List<User> users = new ArrayList<User>();
+		users.add(new User(1, "John", "Smith"));
+		users.add(new User(2, "Anna", "smithers"));
+		users.add(new User(3, "Smitty", "Jones"));
+		users.add(new User(4, "Bob", "Brown"));
+		UserNameIndex index = new UserNameIndex();
+		index.load(users.stream());
+
+		List<User> found = index.findByPrefix("SMI", 10);
+		if( found.size() != 3 || found.get(0).getUserId() != 1 || found.get(1).getUserId() != 2
+				|| found.get(2).getUserId() != 3 )
+		{
+			trace(" *** Expected Smith, smithers then Smitty Jones, found " + found);
+			result = false;
+		}
+
+		index.put(new User(1, "John", "Doe"));
+		index.remove(2);
+		found = index.findByPrefix("smi", 10);
+		if( found.size() != 1 || found.get(0).getUserId() != 3 || index.findByPrefix("doe", 10).size() != 1 )
+		{
+			trace(" *** Update or removal not reflected: " + found);
+			result = false;
+		}
+		if( index.findByPrefix("", 2).size() != 2 )
+		{
+			trace(" *** Limit not applied");
+			result = false;
+		}
+		try
+		{
+			index.findByPrefix("smi", -1);
+			trace(" *** Negative limit accepted");
+			result = false;
+		}
+		catch(IllegalArgumentException ex)
+		{
+			if( !ex.getMessage().startsWith("limit") )
+			{
+				trace(" *** Unclear message for a negative limit: " + ex.getMessage());
+				result = false;
+			}
+		}
+		return result;
+	}
+
+	private boolean testLookupTime()
+	{
+		trace(String.format("Testing %d lookups over %d users", LOOKUPS, USERS));
+		Random random = new Random(7);
+		List<User> users = new ArrayList<User>(USERS);
+		for(int i = 1; i <= USERS; i++)
+		{
+			users.add(new User(i, randomName(random), randomName(random)));
+		}
+		UserNameIndex index = new UserNameIndex();
+		index.load(users.stream());
+
+		long found = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++)
+		{
+			found += index.findByPrefix(randomName(random).substring(0, 3), 20).size();
+		}
+		double micros = (System.nanoTime() - start) / 1e3 / LOOKUPS;
+		trace(String.format("%.2f us per lookup, %.1f users found on average", micros, (double) found / LOOKUPS));
+
+		if( micros > 100 )
+		{
+			trace(" *** Lookups are not in the microsecond range");
+			return false;
+		}
+		return true;
+	}
+
+	private static String randomName(Random random)
+	{
+		char[] name = new char[5 + random.nextInt(6)];
+		name[0] = (char) ('A' + random.nextInt(26));
+		for(int i = 1; i < name.length; i++)
+		{
+			name[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(name);
+	}
+}
@@ -0,0 +1,54 @@
+package week04.data;
+
+import week04.app.User;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps rows holding id, first_name and last_name columns to users. Create one per
+ * result set; the column indexes are looked up in the constructor.
+ *
+ * With an identity scope, a user the scope already holds is returned as is and
+ * its names are not read again.
+ */
+public class UserRowMapper implements RowMapper<User> {
+
+    private final int m_id;
+    private final int m_firstName;
+    private final int m_lastName;
+    private final IdentityScope m_scope;
+
+    /**
+     * @param resultSet - result set with id, first_name and last_name columns
+     * @throws SQLException - a column is missing
+     */
+    public UserRowMapper(ResultSet resultSet) throws SQLException {
+        this(resultSet, "id", null);
+    }
+
+    /**
+     * @param resultSet - result set with first_name and last_name columns
+     * @param idColumn  - label of the user id column, e.g. user_id when reading accounts
+     * @param scope     - identity scope the users are shared through, null for a new user per row
+     * @throws SQLException - a column is missing
+     */
+    public UserRowMapper(ResultSet resultSet, String idColumn, IdentityScope scope) throws SQLException {
+        m_id = resultSet.findColumn(idColumn);
+        m_firstName = resultSet.findColumn("first_name");
+        m_lastName = resultSet.findColumn("last_name");
+        m_scope = scope;
+    }
+
+    @Override
+    public User map(ResultSet resultSet) throws SQLException {
+        long id = resultSet.getLong(m_id);
+        if (m_scope == null) {
+            return new User(id, resultSet.getString(m_firstName), resultSet.getString(m_lastName));
+        }
+
+        User known = m_scope.get(id);
+        if (known != null) return known;
+        return m_scope.add(new User(id, resultSet.getString(m_firstName), resultSet.getString(m_lastName)));
+    }
+}
@@ -0,0 +1,318 @@
+package week04.util;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that writes the HTML log on a background thread.
+ *
+ * publish() only puts the record on a bounded queue. One writer thread takes
+ * records off in batches, formats each once into a reused buffer with
+ * AtmHtmlLoggingFormatter, and writes the batch with a single buffered write
+ * and flush. Logging threads never wait for formatting or disk I/O unless the
+ * queue is full and the overflow policy is BLOCK.
+ *
+ * Records are formatted after publish() returns, so parameters should not be
+ * changed once they have been logged.
+ */
+public class AsyncHtmlLogHandler extends Handler
+{
+	/** What publish() does when the queue is full */
+	public enum OverflowPolicy
+	{
+		/** wait for room; nothing is lost */
+		BLOCK,
+		/** discard the record */
+		DROP,
+		/** discard records below the drop level, wait for room for the others */
+		DROP_BELOW_LEVEL
+	}
+
+	private static final int MAX_BATCH = 512;
+
+	/**
+	 * Parameterized constructor. Blocks when the queue is full.
+	 *
+	 * @param fileName HTML file to write, replaced if it exists
+	 * @param capacity records the queue holds
+	 * @throws IOException the file could not be opened
+	 */
+	public AsyncHtmlLogHandler(String fileName, int capacity) throws IOException
+	{
+		this(fileName, capacity, OverflowPolicy.BLOCK, Level.WARNING);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param fileName HTML file to write, replaced if it exists
+	 * @param capacity records the queue holds
+	 * @param policy what to do when the queue is full
+	 * @param dropLevel with DROP_BELOW_LEVEL, records below this level are dropped
+	 * @throws IOException the file could not be opened
+	 */
+	public AsyncHtmlLogHandler(String fileName, int capacity, OverflowPolicy policy, Level dropLevel)
+			throws IOException
+	{
+		this(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8), capacity, policy,
+				dropLevel);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param out destination of the HTML; closed by close()
+	 * @param capacity records the queue holds
+	 * @param policy what to do when the queue is full
+	 * @param dropLevel with DROP_BELOW_LEVEL, records below this level are dropped
+	 */
+	public AsyncHtmlLogHandler(Writer out, int capacity, OverflowPolicy policy, Level dropLevel)
+	{
+		m_queue = new ArrayBlockingQueue<LogRecord>(capacity);
+		m_policy = policy;
+		m_dropLevel = dropLevel.intValue();
+		m_out = new BufferedWriter(out, 64 * 1024);
+		m_formatter = new AtmHtmlLoggingFormatter();
+		setFormatter(m_formatter);
+
+		write(m_formatter.getHead(this));
+		m_writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				drain();
+			}
+		}, "atm-log-writer");
+		m_writer.setDaemon(true);
+		m_writer.start();
+	}
+
+	@Override
+	public void publish(LogRecord record)
+	{
+		if( m_closed || !isLoggable(record) )
+		{
+			return;
+		}
+
+		if( m_queue.offer(record) )
+		{
+			enqueued(record);
+			return;
+		}
+
+		boolean wait = m_policy == OverflowPolicy.BLOCK
+				|| (m_policy == OverflowPolicy.DROP_BELOW_LEVEL && record.getLevel().intValue() >= m_dropLevel);
+		if( !wait )
+		{
+			m_dropped.incrementAndGet();
+			return;
+		}
+
+		try
+		{
+			// wait in slices, so a close() while the queue is full does not leave us waiting forever
+			while( !m_closed )
+			{
+				if( m_queue.offer(record, 100, TimeUnit.MILLISECONDS) )
+				{
+					enqueued(record);
+					return;
+				}
+			}
+			m_dropped.incrementAndGet();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			m_dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Count a queued record. close() may have stopped the writer after publish()
+	 * checked m_closed; a record the writer will never take is taken back and dropped.
+	 */
+	private void enqueued(LogRecord record)
+	{
+		if( m_closed && m_queue.remove(record) )
+		{
+			m_dropped.incrementAndGet();
+			return;
+		}
+		m_accepted.incrementAndGet();
+	}
+
+	/**
+	 * Wait until every record published so far is written
+	 */
+	@Override
+	public void flush()
+	{
+		long target = m_accepted.get();
+		synchronized( m_progress )
+		{
+			while( m_written < target && m_writer.isAlive() )
+			{
+				try
+				{
+					m_progress.wait(100);
+				}
+				catch(InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the records still queued, finish the HTML and close the file
+	 */
+	@Override
+	public void close()
+	{
+		if( m_closed )
+		{
+			return;
+		}
+		m_closed = true;
+		m_writer.interrupt();
+		try
+		{
+			m_writer.join();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		try
+		{
+			m_out.write(m_formatter.getTail(this));
+			m_out.close();
+		}
+		catch(IOException ex)
+		{
+			reportError("Could not close the log", ex, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * @return records discarded because the queue was full or the handler closed
+	 */
+	public long getDroppedCount()
+	{
+		return m_dropped.get();
+	}
+
+	/**
+	 * @return records written to the file
+	 */
+	public long getWrittenCount()
+	{
+		synchronized( m_progress )
+		{
+			return m_written;
+		}
+	}
+
+	/** Writer thread: take a batch, format it into one buffer, write it once */
+	private void drain()
+	{
+		List<LogRecord> batch = new ArrayList<LogRecord>(MAX_BATCH);
+		StringBuilder buf = new StringBuilder(MAX_BATCH * 128);
+		boolean running = true;
+		while( running || !m_queue.isEmpty() )
+		{
+			try
+			{
+				LogRecord first = running ? m_queue.poll(1, TimeUnit.SECONDS) : m_queue.poll();
+				if( first == null )
+				{
+					continue;
+				}
+				batch.add(first);
+			}
+			catch(InterruptedException ex)
+			{
+				// close(): write what is left without waiting for more
+				running = false;
+				continue;
+			}
+			m_queue.drainTo(batch, MAX_BATCH - 1);
+
+			buf.setLength(0);
+			for(LogRecord record : batch)
+			{
+				try
+				{
+					m_formatter.appendTo(buf, record);
+				}
+				catch(RuntimeException ex)
+				{
+					reportError("Could not format a record", ex, ErrorManager.FORMAT_FAILURE);
+				}
+			}
+			write(buf);
+			try
+			{
+				m_out.flush();
+			}
+			catch(IOException ex)
+			{
+				reportError("Could not flush the log", ex, ErrorManager.FLUSH_FAILURE);
+			}
+
+			synchronized( m_progress )
+			{
+				m_written += batch.size();
+				m_progress.notifyAll();
+			}
+			batch.clear();
+			if( m_closed )
+			{
+				running = false;
+			}
+		}
+	}
+
+	private void write(CharSequence text)
+	{
+		try
+		{
+			m_out.append(text);
+		}
+		catch(IOException ex)
+		{
+			reportError("Could not write the log", ex, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	private final ArrayBlockingQueue<LogRecord> m_queue;
+	private final OverflowPolicy m_policy;
+	private final int m_dropLevel;
+	private final Writer m_out;
+	private final AtmHtmlLoggingFormatter m_formatter;
+	private final Thread m_writer;
+	private final AtomicLong m_accepted = new AtomicLong();
+	private final AtomicLong m_dropped = new AtomicLong();
+	private final Object m_progress = new Object();
+	private long m_written = 0;
+	private volatile boolean m_closed = false;
+}
@@ -0,0 +1,240 @@
+package week04.util;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests the AsyncHtmlLogHandler class writing to an in memory writer
+ *
+ */
+public class AsyncHtmlLogHandlerTestCase extends AbstractTestCase
+{
+	private static final int THREADS = 8;
+	private static final int RECORDS_PER_THREAD = 1000;
+
+	public AsyncHtmlLogHandlerTestCase()
+	{
+		super("AsyncHtmlLogHandlerTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testEveryRecordWritten();
+			boolean test2 = testDropBelowLevel();
+			boolean test3 = testCloseWhilePublishing();
+
+			result = test1 && test2 && test3;
+		}
+		catch(Exception ex)
+		{
+			trace("TestAsyncHtmlLogHandler: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testEveryRecordWritten() throws Exception
+	{
+		trace(String.format("Testing %d threads logging %d records each", THREADS, RECORDS_PER_THREAD));
+		boolean result = true;
+
+		StringWriter out = new StringWriter();
+		final AsyncHtmlLogHandler handler = new AsyncHtmlLogHandler(out, 64,
+				AsyncHtmlLogHandler.OverflowPolicy.BLOCK, Level.WARNING);
+
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++)
+		{
+			final int thread = t;
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(int i = 0; i < RECORDS_PER_THREAD; i++)
+					{
+						handler.publish(newRecord(Level.INFO, "thread {0} record {1}", thread, i));
+					}
+				}
+			});
+		}
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		handler.flush();
+		long written = handler.getWrittenCount();
+		handler.close();
+
+		String html = out.toString();
+		int rows = count(html, "<tr>");
+		int records = THREADS * RECORDS_PER_THREAD;
+		if( written != records || rows != records )
+		{
+			trace(" *** " + written + " records flushed and " + rows + " rows written, expected " + records);
+			result = false;
+		}
+		if( !html.startsWith("<html>") || !html.endsWith("</html>") || !html.contains("thread 3 record 999") )
+		{
+			trace(" *** Head, tail or message missing");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testDropBelowLevel() throws Exception
+	{
+		trace("Testing DROP_BELOW_LEVEL with a slow writer");
+		boolean result = true;
+
+		SlowWriter out = new SlowWriter();
+		AsyncHtmlLogHandler handler = new AsyncHtmlLogHandler(out, 4,
+				AsyncHtmlLogHandler.OverflowPolicy.DROP_BELOW_LEVEL, Level.WARNING);
+		for(int i = 0; i < 200; i++)
+		{
+			handler.publish(newRecord(i % 10 == 0 ? Level.SEVERE : Level.FINE, "record {0}", i, 0));
+		}
+		handler.close();
+
+		String html = out.toString();
+		int severe = count(html, "SEVERE");
+		if( handler.getDroppedCount() == 0 || severe != 20
+				|| count(html, "<tr>") + handler.getDroppedCount() != 200 )
+		{
+			trace(" *** " + handler.getDroppedCount() + " dropped, " + severe + " of 20 SEVERE records written");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testCloseWhilePublishing() throws Exception
+	{
+		trace("Testing close while a publisher waits for room");
+		boolean result = true;
+
+		final GatedWriter out = new GatedWriter();
+		final AsyncHtmlLogHandler handler = new AsyncHtmlLogHandler(out, 1,
+				AsyncHtmlLogHandler.OverflowPolicy.BLOCK, Level.WARNING);
+		handler.publish(newRecord(Level.INFO, "record {0}", 1, 0));
+		out.m_entered.await();
+		// the writer is stuck on the first record and the queue holds the second
+		handler.publish(newRecord(Level.INFO, "record {0}", 2, 0));
+
+		Thread publisher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				handler.publish(newRecord(Level.INFO, "record {0}", 3, 0));
+			}
+		});
+		Thread closer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				handler.close();
+			}
+		});
+		publisher.start();
+		Thread.sleep(100);
+		closer.start();
+		Thread.sleep(100);
+		out.m_gate.countDown();
+		publisher.join(5000);
+		closer.join(5000);
+
+		if( publisher.isAlive() || closer.isAlive() )
+		{
+			trace(" *** Publisher or close() still waiting after the handler closed");
+			result = false;
+		}
+		else if( handler.getWrittenCount() + handler.getDroppedCount() != 3 || handler.getWrittenCount() < 2 )
+		{
+			trace(" *** " + handler.getWrittenCount() + " written and " + handler.getDroppedCount()
+					+ " dropped of 3 records");
+			result = false;
+		}
+		return result;
+	}
+
+	private static LogRecord newRecord(Level level, String message, int a, int b)
+	{
+		LogRecord record = new LogRecord(level, message);
+		record.setLoggerName("AsyncHtmlLogHandlerTestCase");
+		record.setParameters(new Object[] { a, b });
+		return record;
+	}
+
+	private static int count(String text, String part)
+	{
+		int count = 0;
+		for(int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1))
+		{
+			count++;
+		}
+		return count;
+	}
+
+	/** Writer whose flushes wait until the gate opens */
+	private static class GatedWriter extends StringWriter
+	{
+		private final CountDownLatch m_entered = new CountDownLatch(1);
+		private final CountDownLatch m_gate = new CountDownLatch(1);
+
+		@Override
+		public void flush()
+		{
+			m_entered.countDown();
+			boolean interrupted = false;
+			while( true )
+			{
+				try
+				{
+					m_gate.await(10, TimeUnit.SECONDS);
+					break;
+				}
+				catch(InterruptedException ex)
+				{
+					// close() interrupts the writer thread; hold it here anyway
+					interrupted = true;
+				}
+			}
+			if( interrupted )
+			{
+				Thread.currentThread().interrupt();
+			}
+			super.flush();
+		}
+	}
+
+	/** Writer that takes a millisecond per flush, so the queue fills up */
+	private static class SlowWriter extends StringWriter
+	{
+		@Override
+		public void flush()
+		{
+			try
+			{
+				Thread.sleep(1);
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+			super.flush();
+		}
+	}
+}
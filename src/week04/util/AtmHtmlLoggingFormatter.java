@@ -1,6 +1,8 @@
 package week04.util;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -15,14 +17,32 @@ import java.util.logging.LogRecord;
  * Writing a log event which occurs multiple times
  * Closing a logger which allows the formatter to finish the log.
  * 
+ * Formatting is thread safe and keeps no per record state; the date format
+ * is created once and shared.
+ * 
  * @author Scott LaChance
  */
 public class AtmHtmlLoggingFormatter extends Formatter
 {
+	private static final DateTimeFormatter DATE_FORMAT =
+			DateTimeFormatter.ofPattern("MMM dd,yyyy HH:mm").withZone(ZoneId.systemDefault());
+
 	// this method is called for every log records
 	public String format(LogRecord rec)
 	{
-		StringBuffer buf = new StringBuffer(1000);
+		return appendTo(new StringBuilder(256), rec).toString();
+	}
+
+	/**
+	 * Append the table row for a record. Lets a handler reuse one builder for
+	 * every record instead of allocating a String per record.
+	 * 
+	 * @param buf destination
+	 * @param rec record to format
+	 * @return buf
+	 */
+	public StringBuilder appendTo(StringBuilder buf, LogRecord rec)
+	{
 		buf.append("<tr>");
 
 		// highlight any levels >= WARNING in red
@@ -39,8 +59,6 @@ public class AtmHtmlLoggingFormatter extends Formatter
 			buf.append(rec.getLevel());
 		}
 
-		String msg = formatMessage(rec);
-		System.out.println(msg);
 		buf.append("</td>\n");
 		buf.append("\t<td>");
 		buf.append(calcDate(rec.getMillis()));
@@ -53,14 +71,36 @@ public class AtmHtmlLoggingFormatter extends Formatter
 		buf.append("</td>\n");
 		buf.append("</tr>\n");
 
-		return buf.toString();
+		return buf;
 	}
 
+	/**
+	 * The format only shows minutes, so records logged within the same minute
+	 * reuse the last formatted date.
+	 */
 	private String calcDate(long millisecs)
 	{
-		SimpleDateFormat date_format = new SimpleDateFormat("MMM dd,yyyy HH:mm");
-		Date resultdate = new Date(millisecs);
-		return date_format.format(resultdate);
+		long minute = Math.floorDiv(millisecs, 60000L);
+		CachedDate cached = m_lastDate;
+		if( cached == null || cached.m_minute != minute )
+		{
+			cached = new CachedDate(minute, DATE_FORMAT.format(Instant.ofEpochMilli(millisecs)));
+			m_lastDate = cached;
+		}
+		return cached.m_text;
+	}
+
+	/** Formatted date of one minute; immutable so threads can share it without locking */
+	private static final class CachedDate
+	{
+		CachedDate(long minute, String text)
+		{
+			m_minute = minute;
+			m_text = text;
+		}
+
+		private final long m_minute;
+		private final String m_text;
 	}
 
 	/** 
@@ -95,4 +135,6 @@ public class AtmHtmlLoggingFormatter extends Formatter
 	{
 		return "</table>\n</body>\n</html>";
 	}
+
+	private volatile CachedDate m_lastDate;
 }
@@ -0,0 +1,295 @@
+package week04.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that writes records to a compact binary file instead of HTML.
+ *
+ * Nothing is formatted when a record is logged. The handler stores the level,
+ * the time, the logger name and the message template as small ids, and the
+ * message parameters as typed values, into a memory-mapped file. Each logger
+ * name and template is written once, the first time it is used. Use
+ * BinaryLogRenderer to turn the file into the HTML log when someone wants to
+ * read it.
+ *
+ * File layout, after an 8 byte magic and the 8 byte creation time:
+ *
+ *   LOGGER   id, name
+ *   TEMPLATE id, text
+ *   RECORD   level, millis, logger id, template id, parameter count, parameters
+ *
+ * Ids, counts and lengths are unsigned varints, strings are UTF-8, and the
+ * unwritten rest of the file reads as END. Integral, floating point,
+ * BigDecimal, BigInteger and Date parameters keep their type, so the renderer
+ * formats them as the live formatter would; any other parameter is stored as
+ * its toString().
+ */
+public class BinaryLogHandler extends Handler
+{
+	static final long MAGIC = 0x41544d4c4f473031L; // "ATMLOG01"
+	static final byte END = 0;
+	static final byte LOGGER = 1;
+	static final byte TEMPLATE = 2;
+	static final byte RECORD = 3;
+
+	static final byte PARAM_NULL = 0;
+	static final byte PARAM_LONG = 1;
+	static final byte PARAM_DOUBLE = 2;
+	static final byte PARAM_STRING = 3;
+	static final byte PARAM_DECIMAL = 4;
+	static final byte PARAM_BIG_INTEGER = 5;
+	static final byte PARAM_DATE = 6;
+
+	private static final int REGION_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param file binary log to write, replaced if it exists
+	 * @throws IOException the file could not be created
+	 */
+	public BinaryLogHandler(Path file) throws IOException
+	{
+		m_channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		m_region = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_BYTES);
+		m_region.putLong(MAGIC);
+		m_region.putLong(System.currentTimeMillis());
+	}
+
+	@Override
+	public synchronized void publish(LogRecord record)
+	{
+		if( m_region == null || !isLoggable(record) )
+		{
+			return;
+		}
+
+		int firstNewId = m_nextId;
+		while( true )
+		{
+			try
+			{
+				m_scratch.clear();
+				encode(record);
+				break;
+			}
+			catch(BufferOverflowException ex)
+			{
+				// parameters larger than the scratch buffer; forget what this record interned and retry
+				m_loggers.values().removeIf(id -> id >= firstNewId);
+				m_templates.values().removeIf(id -> id >= firstNewId);
+				m_nextId = firstNewId;
+				m_scratch = ByteBuffer.allocate(m_scratch.capacity() * 4);
+			}
+		}
+
+		try
+		{
+			m_scratch.flip();
+			append(m_scratch);
+		}
+		catch(IOException ex)
+		{
+			reportError("Could not write the log", ex, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/**
+	 * Force the written records to disk
+	 */
+	@Override
+	public synchronized void flush()
+	{
+		if( m_region != null )
+		{
+			m_region.force();
+		}
+	}
+
+	/**
+	 * Force the records to disk and cut the file to its written length where the
+	 * platform allows it
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if( m_region == null )
+		{
+			return;
+		}
+		try
+		{
+			m_region.force();
+			long length = m_regionStart + m_region.position();
+			m_region = null;
+			try
+			{
+				m_channel.truncate(length);
+			}
+			catch(IOException ex)
+			{
+				// Windows refuses while the regions are still mapped; the zeros after the log read as END
+			}
+			m_channel.close();
+		}
+		catch(IOException ex)
+		{
+			reportError("Could not close the log", ex, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * @return bytes written so far
+	 */
+	public synchronized long getBytesWritten()
+	{
+		return m_region == null ? 0 : m_regionStart + m_region.position();
+	}
+
+	private void encode(LogRecord record)
+	{
+		int loggerId = intern(m_loggers, LOGGER, record.getLoggerName());
+		int templateId = intern(m_templates, TEMPLATE, record.getMessage());
+
+		Object[] parameters = record.getParameters();
+		int count = parameters == null ? 0 : parameters.length;
+		m_scratch.put(RECORD);
+		putVarint(record.getLevel().intValue() & 0xffffffffL);
+		m_scratch.putLong(record.getMillis());
+		putVarint(loggerId);
+		putVarint(templateId);
+		putVarint(count);
+		for(int i = 0; i < count; i++)
+		{
+			putParameter(parameters[i]);
+		}
+	}
+
+	/**
+	 * @return id of the name, writing its definition into the scratch buffer on first use
+	 */
+	private int intern(Map<String, Integer> ids, byte type, String value)
+	{
+		String key = value == null ? "" : value;
+		Integer id = ids.get(key);
+		if( id != null )
+		{
+			return id;
+		}
+
+		int newId = m_nextId++;
+		ids.put(key, newId);
+		m_scratch.put(type);
+		putVarint(newId);
+		putString(key);
+		return newId;
+	}
+
+	private void putParameter(Object value)
+	{
+		if( value == null )
+		{
+			m_scratch.put(PARAM_NULL);
+		}
+		else if( value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte || value instanceof AtomicLong || value instanceof AtomicInteger )
+		{
+			m_scratch.put(PARAM_LONG);
+			putSignedVarint(((Number) value).longValue());
+		}
+		else if( value instanceof BigDecimal )
+		{
+			BigDecimal decimal = (BigDecimal) value;
+			m_scratch.put(PARAM_DECIMAL);
+			putSignedVarint(decimal.scale());
+			putBytes(decimal.unscaledValue().toByteArray());
+		}
+		else if( value instanceof BigInteger )
+		{
+			m_scratch.put(PARAM_BIG_INTEGER);
+			putBytes(((BigInteger) value).toByteArray());
+		}
+		else if( value instanceof Number )
+		{
+			// Double, Float and any other Number; MessageFormat formats these by doubleValue()
+			m_scratch.put(PARAM_DOUBLE);
+			m_scratch.putDouble(((Number) value).doubleValue());
+		}
+		else if( value instanceof Date )
+		{
+			m_scratch.put(PARAM_DATE);
+			m_scratch.putLong(((Date) value).getTime());
+		}
+		else
+		{
+			m_scratch.put(PARAM_STRING);
+			putString(value.toString());
+		}
+	}
+
+	private void putString(String value)
+	{
+		putBytes(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void putBytes(byte[] bytes)
+	{
+		putVarint(bytes.length);
+		m_scratch.put(bytes);
+	}
+
+	private void putSignedVarint(long value)
+	{
+		putVarint((value << 1) ^ (value >> 63));
+	}
+
+	private void putVarint(long value)
+	{
+		while( (value & ~0x7fL) != 0 )
+		{
+			m_scratch.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		m_scratch.put((byte) value);
+	}
+
+	/** Copy an encoded entry into the mapped file, mapping the next region when this one is full */
+	private void append(ByteBuffer entry) throws IOException
+	{
+		// keep one END byte after every entry so readers know where the log stops
+		if( entry.remaining() + 1 > m_region.remaining() )
+		{
+			m_regionStart += m_region.position();
+			m_region.force();
+			m_region = m_channel.map(FileChannel.MapMode.READ_WRITE, m_regionStart,
+					Math.max(REGION_BYTES, entry.remaining() + 1));
+		}
+		m_region.put(entry);
+	}
+
+	private final FileChannel m_channel;
+	private MappedByteBuffer m_region;
+	private long m_regionStart = 0;
+	private ByteBuffer m_scratch = ByteBuffer.allocate(4096);
+	private final Map<String, Integer> m_loggers = new HashMap<String, Integer>();
+	private final Map<String, Integer> m_templates = new HashMap<String, Integer>();
+	private int m_nextId = 0;
+}
@@ -0,0 +1,219 @@
+package week04.util;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Renders a log written by BinaryLogHandler as the HTML log that
+ * AtmHtmlLoggingFormatter produces, with the same head, rows and tail.
+ *
+ * Usage: java week04.util.BinaryLogRenderer atm.binlog [atm.html]
+ *
+ * Without an output file the HTML goes to standard output.
+ */
+public class BinaryLogRenderer
+{
+	public static void main(String[] args)
+	{
+		if( args.length < 1 || args.length > 2 )
+		{
+			System.err.println("Usage: BinaryLogRenderer <binary log> [html file]");
+			System.exit(2);
+			return;
+		}
+
+		try
+		{
+			Writer out = args.length == 2
+					? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+					: new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+			try
+			{
+				int records = render(Paths.get(args[0]), out);
+				System.err.println("Rendered " + records + " records");
+			}
+			finally
+			{
+				if( args.length == 2 )
+					out.close();
+				else
+					out.flush();
+			}
+		}
+		catch(IOException ex)
+		{
+			System.err.println("Could not render " + args[0] + ": " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Write the HTML for every record in a binary log. An entry cut off by the end
+	 * of the file, left by a process that stopped while writing it, ends the log.
+	 *
+	 * @param file binary log
+	 * @param out destination of the HTML; not closed
+	 * @return number of records rendered
+	 * @throws IOException the file could not be read or is not a binary log
+	 */
+	public static int render(Path file, Writer out) throws IOException
+	{
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if( in.remaining() < 16 || in.getLong() != BinaryLogHandler.MAGIC )
+		{
+			throw new IOException(file + " is not a binary ATM log");
+		}
+		in.getLong(); // creation time
+
+		AtmHtmlLoggingFormatter formatter = new AtmHtmlLoggingFormatter();
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		Map<Integer, Level> levels = new HashMap<Integer, Level>();
+		StringBuilder buf = new StringBuilder(512);
+		int records = 0;
+
+		out.write(formatter.getHead(null));
+		while( in.hasRemaining() )
+		{
+			int start = in.position();
+			try
+			{
+				byte type = in.get();
+				if( type == BinaryLogHandler.END )
+				{
+					break;
+				}
+				else if( type == BinaryLogHandler.LOGGER || type == BinaryLogHandler.TEMPLATE )
+				{
+					int id = (int) getVarint(in);
+					names.put(id, getString(in));
+				}
+				else if( type == BinaryLogHandler.RECORD )
+				{
+					int level = (int) getVarint(in);
+					long millis = in.getLong();
+					String logger = names.get((int) getVarint(in));
+					String template = names.get((int) getVarint(in));
+					Object[] parameters = new Object[(int) getVarint(in)];
+					for(int i = 0; i < parameters.length; i++)
+					{
+						parameters[i] = getParameter(in);
+					}
+
+					LogRecord record = new LogRecord(levelOf(levels, level), template);
+					record.setInstant(Instant.ofEpochMilli(millis));
+					record.setLoggerName(logger);
+					record.setParameters(parameters.length == 0 ? null : parameters);
+
+					buf.setLength(0);
+					out.append(formatter.appendTo(buf, record));
+					records++;
+				}
+				else
+				{
+					throw new IOException("Corrupt binary log: entry type " + type + " at " + (in.position() - 1));
+				}
+			}
+			catch(BufferUnderflowException ex)
+			{
+				// the file ends inside this entry: the process stopped while writing it
+				break;
+			}
+			catch(RuntimeException ex)
+			{
+				throw new IOException("Corrupt binary log: entry at " + start, ex);
+			}
+		}
+		out.write(formatter.getTail(null));
+		return records;
+	}
+
+	private static Level levelOf(Map<Integer, Level> levels, int value)
+	{
+		Level level = levels.get(value);
+		if( level == null )
+		{
+			// standard levels parse to their names; custom ones keep their number
+			level = Level.parse(Integer.toString(value));
+			levels.put(value, level);
+		}
+		return level;
+	}
+
+	private static Object getParameter(ByteBuffer in) throws IOException
+	{
+		byte type = in.get();
+		switch( type )
+		{
+			case BinaryLogHandler.PARAM_NULL:
+				return null;
+			case BinaryLogHandler.PARAM_LONG:
+				return getSignedVarint(in);
+			case BinaryLogHandler.PARAM_DOUBLE:
+				return in.getDouble();
+			case BinaryLogHandler.PARAM_STRING:
+				return getString(in);
+			case BinaryLogHandler.PARAM_DECIMAL:
+				int scale = (int) getSignedVarint(in);
+				return new BigDecimal(new BigInteger(getBytes(in)), scale);
+			case BinaryLogHandler.PARAM_BIG_INTEGER:
+				return new BigInteger(getBytes(in));
+			case BinaryLogHandler.PARAM_DATE:
+				return new Date(in.getLong());
+			default:
+				throw new IOException("Corrupt binary log: parameter type " + type + " at " + (in.position() - 1));
+		}
+	}
+
+	private static String getString(ByteBuffer in)
+	{
+		return new String(getBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] getBytes(ByteBuffer in)
+	{
+		byte[] bytes = new byte[(int) getVarint(in)];
+		in.get(bytes);
+		return bytes;
+	}
+
+	private static long getSignedVarint(ByteBuffer in)
+	{
+		long zigzag = getVarint(in);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private static long getVarint(ByteBuffer in)
+	{
+		long value = 0;
+		for(int shift = 0; ; shift += 7)
+		{
+			byte b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			if( b >= 0 )
+			{
+				return value;
+			}
+		}
+	}
+}
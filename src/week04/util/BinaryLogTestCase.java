@@ -0,0 +1,182 @@
+package week04.util;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests that BinaryLogRenderer turns what BinaryLogHandler wrote into the same
+ * rows AtmHtmlLoggingFormatter produces directly
+ *
+ */
+public class BinaryLogTestCase extends AbstractTestCase
+{
+	private static final int RECORDS = 10000;
+
+	public BinaryLogTestCase()
+	{
+		super("BinaryLogTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testRoundTrip();
+			boolean test2 = testTypedParameters();
+			boolean test3 = testTornEntry();
+
+			result = test1 && test2 && test3;
+		}
+		catch(Exception ex)
+		{
+			trace("TestBinaryLog: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testRoundTrip() throws Exception
+	{
+		trace("Testing " + RECORDS + " records written in binary and rendered as HTML");
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-log", ".binlog");
+		BinaryLogHandler handler = new BinaryLogHandler(file);
+		AtmHtmlLoggingFormatter formatter = new AtmHtmlLoggingFormatter();
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < RECORDS; i++)
+		{
+			LogRecord record = newRecord(i);
+			handler.publish(record);
+			expected.append(formatter.format(record));
+		}
+		handler.close();
+
+		StringWriter out = new StringWriter();
+		int rendered = BinaryLogRenderer.render(file, out);
+		String html = out.toString();
+		String tail = formatter.getTail(null);
+		int rowsStart = html.indexOf("</tr>\n") + "</tr>\n".length();
+		String rows = html.substring(rowsStart, html.length() - tail.length());
+
+		long binaryBytes = Files.size(file);
+		trace(String.format("%d bytes binary, %d bytes HTML rows: %.1fx smaller", binaryBytes,
+				expected.length(), (double) expected.length() / binaryBytes));
+
+		if( rendered != RECORDS || !rows.equals(expected.toString()) )
+		{
+			trace(" *** Rendered " + rendered + " records that do not match the formatter's rows");
+			result = false;
+		}
+		if( binaryBytes * 3 > expected.length() )
+		{
+			trace(" *** Binary log is not much smaller than the HTML");
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private boolean testTypedParameters() throws Exception
+	{
+		trace("Testing Date, BigDecimal and BigInteger parameters");
+		boolean result = true;
+
+		Object[][] parameters = {
+				{ new Date(1700000000000L), new BigDecimal("1234567.891"), new BigInteger("123456789012345678901234567890") },
+				{ new Date(0), new BigDecimal("-0.05"), BigInteger.ZERO },
+				{ new Timestamp(1700000012345L), BigDecimal.valueOf(12552, 2), BigInteger.valueOf(-7) } };
+
+		Path file = Files.createTempFile("atm-log", ".binlog");
+		BinaryLogHandler handler = new BinaryLogHandler(file);
+		AtmHtmlLoggingFormatter formatter = new AtmHtmlLoggingFormatter();
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < parameters.length; i++)
+		{
+			LogRecord record = new LogRecord(Level.INFO, "Balance at {0} was {1}, reference {2}");
+			record.setParameters(parameters[i]);
+			record.setLoggerName("week04.data.DataAccess");
+			record.setInstant(Instant.ofEpochMilli(1700000000000L + i));
+			handler.publish(record);
+			expected.append(formatter.format(record));
+		}
+		handler.close();
+
+		StringWriter out = new StringWriter();
+		BinaryLogRenderer.render(file, out);
+		String html = out.toString();
+		int rowsStart = html.indexOf("</tr>\n") + "</tr>\n".length();
+		String rows = html.substring(rowsStart, html.length() - formatter.getTail(null).length());
+
+		if( !rows.equals(expected.toString()) )
+		{
+			trace(" *** Rendered rows differ from the formatter's:\n" + rows + "\n" + expected);
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private boolean testTornEntry() throws Exception
+	{
+		trace("Testing a log whose last entry was cut off");
+		boolean result = true;
+
+		Path file = Files.createTempFile("atm-log", ".binlog");
+		BinaryLogHandler handler = new BinaryLogHandler(file);
+		for(int i = 0; i < 100; i++)
+		{
+			handler.publish(newRecord(i));
+		}
+		handler.close();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			channel.truncate(channel.size() - 3);
+		}
+
+		int rendered = BinaryLogRenderer.render(file, new StringWriter());
+		if( rendered != 99 )
+		{
+			trace(" *** Rendered " + rendered + " of the 99 complete records");
+			result = false;
+		}
+		Files.delete(file);
+		return result;
+	}
+
+	private static LogRecord newRecord(int i)
+	{
+		Level level = i % 50 == 0 ? Level.WARNING : Level.INFO;
+		LogRecord record;
+		switch( i % 3 )
+		{
+			case 0:
+				record = new LogRecord(level, "User {0} saved account {1} with balance {2}");
+				record.setParameters(new Object[] { (long) i, "Checking", 125.52 + i });
+				break;
+			case 1:
+				record = new LogRecord(level, "Lease of a pooled connection took {0} ms");
+				record.setParameters(new Object[] { i % 7 });
+				break;
+			default:
+				record = new LogRecord(level, "Connection pool closed");
+				break;
+		}
+		record.setLoggerName(i % 2 == 0 ? "week04.data.DataAccess" : "week04.data.ConnectionPool");
+		record.setInstant(Instant.ofEpochMilli(1700000000000L + i * 1000L));
+		return record;
+	}
+}
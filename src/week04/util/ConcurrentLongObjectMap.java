@@ -0,0 +1,338 @@
+package week04.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent hash map from a primitive long key to an object.
+ *
+ * Keys are kept in a long array and values in a parallel reference array
+ * using open addressing, so there is no boxed Long and no entry object per
+ * mapping. Reads take no locks. Writes lock one of several segments, so
+ * writers to different segments do not block each other.
+ *
+ * Removed slots become tombstones and are only reclaimed by a rehash, never
+ * reused in place, so a slot holds at most one key for the lifetime of its
+ * table and a lock free reader cannot see one key's value under another.
+ *
+ * The keys 0 and Long.MIN_VALUE are reserved and cannot be stored.
+ *
+ * @param <V> value type
+ */
+public class ConcurrentLongObjectMap<V>
+{
+	/** Marks a slot that was never used */
+	private static final long EMPTY = 0L;
+
+	/** Marks a slot whose mapping was removed */
+	private static final long TOMBSTONE = Long.MIN_VALUE;
+
+	private static final int DEFAULT_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+
+	/**
+	 * Default constructor
+	 */
+	public ConcurrentLongObjectMap()
+	{
+		this(DEFAULT_SEGMENTS, 0);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param segments number of independently locked segments, rounded up to a power of two
+	 * @param expectedSize number of mappings to size the tables for
+	 */
+	public ConcurrentLongObjectMap(int segments, int expectedSize)
+	{
+		int segmentCount = powerOfTwoAtLeast(Math.max(1, segments));
+		m_segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+		m_segments = newSegments(segmentCount);
+
+		int perSegment = Math.max(MIN_SEGMENT_CAPACITY, powerOfTwoAtLeast(expectedSize / segmentCount * 2));
+		for(int i = 0; i < segmentCount; i++)
+		{
+			m_segments[i] = new Segment<V>(perSegment);
+		}
+	}
+
+	/**
+	 * Look up a value without locking
+	 *
+	 * @param key key to find
+	 * @return mapped value or null
+	 */
+	public V get(long key)
+	{
+		long hash = mix(key);
+		Table<V> table = segmentFor(hash).m_table;
+		int mask = table.m_mask;
+
+		for(int i = (int) hash & mask; ; i = (i + 1) & mask)
+		{
+			long k = table.m_keys.get(i);
+			if( k == key )
+			{
+				V value = table.m_values.get(i);
+				if( value != null )
+				{
+					return value;
+				}
+				// removed meanwhile; a new put of the key went to a later slot
+			}
+			else if( k == EMPTY )
+			{
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @param key key to find
+	 * @return true if the key is mapped
+	 */
+	public boolean containsKey(long key)
+	{
+		return get(key) != null;
+	}
+
+	/**
+	 * Map a key to a value
+	 *
+	 * @param key key, not 0 or Long.MIN_VALUE
+	 * @param value value, not null
+	 * @return previous value or null
+	 */
+	public V put(long key, V value)
+	{
+		checkKey(key);
+		if( value == null )
+		{
+			throw new NullPointerException("value");
+		}
+		long hash = mix(key);
+		return segmentFor(hash).put(key, hash, value);
+	}
+
+	/**
+	 * Remove a mapping
+	 *
+	 * @param key key to remove
+	 * @return removed value or null
+	 */
+	public V remove(long key)
+	{
+		if( key == EMPTY || key == TOMBSTONE )
+		{
+			return null;
+		}
+		long hash = mix(key);
+		return segmentFor(hash).remove(key, hash);
+	}
+
+	/**
+	 * @return number of mappings
+	 */
+	public int size()
+	{
+		int size = 0;
+		for(Segment<V> segment : m_segments)
+		{
+			size += segment.m_size;
+		}
+		return size;
+	}
+
+	/**
+	 * Copy the values. Writes that happen during the copy may or may not be included.
+	 *
+	 * @return new list holding the values
+	 */
+	public List<V> values()
+	{
+		List<V> list = new ArrayList<V>(size());
+		for(Segment<V> segment : m_segments)
+		{
+			Table<V> table = segment.m_table;
+			for(int i = 0; i < table.m_values.length(); i++)
+			{
+				V value = table.m_values.get(i);
+				if( value != null )
+				{
+					list.add(value);
+				}
+			}
+		}
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> Segment<V>[] newSegments(int count)
+	{
+		return (Segment<V>[]) new Segment<?>[count];
+	}
+
+	private Segment<V> segmentFor(long hash)
+	{
+		// the high bits pick the segment, the low bits the slot within it
+		return m_segments[m_segmentShift == 64 ? 0 : (int) (hash >>> m_segmentShift)];
+	}
+
+	private static void checkKey(long key)
+	{
+		if( key == EMPTY || key == TOMBSTONE )
+		{
+			throw new IllegalArgumentException("Reserved key: " + key);
+		}
+	}
+
+	/** Murmur3 finalizer; sequential ids would otherwise cluster */
+	private static long mix(long key)
+	{
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static int powerOfTwoAtLeast(int value)
+	{
+		int n = 1;
+		while( n < value && n < (1 << 30) )
+		{
+			n <<= 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Open addressing table. A slot's value is written before its key, so a
+	 * reader that sees the key also sees the value.
+	 */
+	private static final class Table<V>
+	{
+		private Table(int capacity)
+		{
+			m_keys = new AtomicLongArray(capacity);
+			m_values = new AtomicReferenceArray<V>(capacity);
+			m_mask = capacity - 1;
+		}
+
+		private final AtomicLongArray m_keys;
+		private final AtomicReferenceArray<V> m_values;
+		private final int m_mask;
+	}
+
+	private static final class Segment<V>
+	{
+		private Segment(int capacity)
+		{
+			m_table = new Table<V>(capacity);
+		}
+
+		private synchronized V put(long key, long hash, V value)
+		{
+			Table<V> table = m_table;
+			int mask = table.m_mask;
+			int free;
+
+			// tombstones are skipped, not reused; see the class comment
+			for(int i = (int) hash & mask; ; i = (i + 1) & mask)
+			{
+				long k = table.m_keys.get(i);
+				if( k == key )
+				{
+					return table.m_values.getAndSet(i, value);
+				}
+				if( k == EMPTY )
+				{
+					free = i;
+					m_used++;
+					break;
+				}
+			}
+
+			table.m_values.set(free, value);
+			table.m_keys.set(free, key);
+			m_size++;
+
+			if( m_used > (table.m_mask + 1) / 4 * 3 )
+			{
+				rehash();
+			}
+			return null;
+		}
+
+		private synchronized V remove(long key, long hash)
+		{
+			Table<V> table = m_table;
+			int mask = table.m_mask;
+
+			for(int i = (int) hash & mask; ; i = (i + 1) & mask)
+			{
+				long k = table.m_keys.get(i);
+				if( k == key )
+				{
+					V old = table.m_values.getAndSet(i, null);
+					table.m_keys.set(i, TOMBSTONE);
+					m_size--;
+					return old;
+				}
+				if( k == EMPTY )
+				{
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * Copy live mappings into a new table, dropping tombstones, and publish
+		 * it. Readers still on the old table see a consistent older view.
+		 */
+		private void rehash()
+		{
+			Table<V> old = m_table;
+			int capacity = old.m_mask + 1;
+			if( m_size * 2 > capacity )
+			{
+				capacity <<= 1;
+			}
+
+			Table<V> table = new Table<V>(capacity);
+			int mask = table.m_mask;
+			for(int j = 0; j <= old.m_mask; j++)
+			{
+				long k = old.m_keys.get(j);
+				V value = old.m_values.get(j);
+				if( k == EMPTY || k == TOMBSTONE || value == null )
+				{
+					continue;
+				}
+				int i = (int) mix(k) & mask;
+				while( table.m_keys.get(i) != EMPTY )
+				{
+					i = (i + 1) & mask;
+				}
+				table.m_values.lazySet(i, value);
+				table.m_keys.lazySet(i, k);
+			}
+
+			m_used = m_size;
+			// volatile write publishes the filled table
+			m_table = table;
+		}
+
+		private volatile Table<V> m_table;
+		private volatile int m_size;
+		private int m_used;
+	}
+
+	private final Segment<V>[] m_segments;
+	private final int m_segmentShift;
+}
@@ -0,0 +1,243 @@
+package week04.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests the ConcurrentLongObjectMap class
+ *
+ */
+public class ConcurrentLongObjectMapTestCase extends AbstractTestCase
+{
+	public ConcurrentLongObjectMapTestCase()
+	{
+		super("ConcurrentLongObjectMapTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testPutGetRemove();
+			boolean test2 = testConcurrentReadersAndWriters();
+			boolean test3 = testReadsDuringRemoveAndPut();
+
+			result = test1 && test2 && test3;
+		}
+		catch(Exception ex)
+		{
+			trace("TestConcurrentLongObjectMap: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testPutGetRemove()
+	{
+		trace("Testing put, get and remove");
+		boolean result = true;
+
+		ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>(4, 0);
+		int count = 100000;
+		for(long key = 1; key <= count; key++)
+		{
+			map.put(key, "v" + key);
+		}
+		// remove every other key so the tables fill with tombstones
+		for(long key = 2; key <= count; key += 2)
+		{
+			map.remove(key);
+		}
+		for(long key = count + 1; key <= count * 2; key++)
+		{
+			map.put(key, "v" + key);
+		}
+
+		for(long key = 1; key <= count * 2; key++)
+		{
+			boolean expected = key > count || key % 2 == 1;
+			String value = map.get(key);
+			if( expected != (value != null) || (value != null && !value.equals("v" + key)) )
+			{
+				trace(" *** Wrong value for key " + key + ": " + value);
+				result = false;
+				break;
+			}
+		}
+
+		if( map.size() != count + count / 2 || map.values().size() != map.size() )
+		{
+			trace(" *** Wrong size: " + map.size());
+			result = false;
+		}
+
+		if( !"v1".equals(map.put(1, "replaced")) || !"replaced".equals(map.get(1)) )
+		{
+			trace(" *** Replacing a value failed");
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testConcurrentReadersAndWriters() throws InterruptedException
+	{
+		final int writers = 4;
+		final int readers = 4;
+		final int keysPerWriter = 250000;
+		trace(String.format("Testing %d writers and %d readers", writers, readers));
+
+		final ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final AtomicBoolean done = new AtomicBoolean(false);
+
+		Thread[] writerThreads = new Thread[writers];
+		for(int w = 0; w < writers; w++)
+		{
+			final long base = (long) w * keysPerWriter;
+			writerThreads[w] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(long key = base + 1; key <= base + keysPerWriter; key++)
+					{
+						map.put(key, Long.valueOf(key));
+					}
+				}
+			});
+		}
+
+		Thread[] readerThreads = new Thread[readers];
+		for(int r = 0; r < readers; r++)
+		{
+			readerThreads[r] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					long key = 1;
+					while( !done.get() )
+					{
+						Long value = map.get(key);
+						// a value, when present, must belong to its key
+						if( value != null && value.longValue() != key )
+						{
+							failed.set(true);
+						}
+						key = key % ((long) writers * keysPerWriter) + 1;
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : readerThreads)
+		{
+			thread.start();
+		}
+		for(Thread thread : writerThreads)
+		{
+			thread.start();
+		}
+		for(Thread thread : writerThreads)
+		{
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		done.set(true);
+		for(Thread thread : readerThreads)
+		{
+			thread.join();
+		}
+
+		int total = writers * keysPerWriter;
+		trace(String.format("Inserted %d keys in %.1f ms under concurrent reads", total, elapsed / 1e6));
+
+		boolean result = !failed.get();
+		if( !result )
+		{
+			trace(" *** Reader saw a value under the wrong key");
+		}
+		for(long key = 1; key <= total; key++)
+		{
+			Long value = map.get(key);
+			if( value == null || value.longValue() != key )
+			{
+				trace(" *** Missing key after concurrent inserts: " + key);
+				result = false;
+				break;
+			}
+		}
+		if( map.size() != total )
+		{
+			trace(" *** Wrong size: " + map.size());
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testReadsDuringRemoveAndPut() throws InterruptedException
+	{
+		final int keys = 64;
+		final int rounds = 2000000;
+		trace(String.format("Testing reads while %d keys are removed and put %d times", keys, rounds));
+
+		// one small segment, so removed slots are found again by the probes of other keys
+		final ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(1, keys);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final AtomicBoolean done = new AtomicBoolean(false);
+
+		Thread writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for(int i = 0; i < rounds; i++)
+				{
+					long key = i % keys + 1;
+					map.remove(key);
+					map.put(key % keys + 1, Long.valueOf(key % keys + 1));
+				}
+			}
+		});
+
+		Thread[] readerThreads = new Thread[3];
+		for(int r = 0; r < readerThreads.length; r++)
+		{
+			readerThreads[r] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					long key = 1;
+					while( !done.get() )
+					{
+						Long value = map.get(key);
+						if( value != null && value.longValue() != key )
+						{
+							failed.set(true);
+						}
+						key = key % keys + 1;
+					}
+				}
+			});
+			readerThreads[r].start();
+		}
+		writer.start();
+		writer.join();
+		done.set(true);
+		for(Thread thread : readerThreads)
+		{
+			thread.join();
+		}
+
+		if( failed.get() )
+		{
+			trace(" *** Reader saw a value under the wrong key");
+			return false;
+		}
+		return true;
+	}
+}
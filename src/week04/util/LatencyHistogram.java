@@ -0,0 +1,173 @@
+package week04.util;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies with a fixed relative precision, in the style of
+ * HdrHistogram. Values below 256 are counted exactly; larger values fall into
+ * log-linear buckets 1/128 of their magnitude wide, so any percentile is
+ * reported within 1% of the true value. Recording is an array increment and
+ * allocates nothing.
+ *
+ * Not thread safe. Give each thread its own histogram and add() them together
+ * when reporting.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final int MAX_SHIFT = 63 - SUB_BUCKET_BITS + 1;
+
+	/**
+	 * Default constructor
+	 */
+	public LatencyHistogram()
+	{
+		m_counts = new long[SUB_BUCKETS + MAX_SHIFT * HALF_SUB_BUCKETS];
+		reset();
+	}
+
+	/**
+	 * @param value latency, normally in nanoseconds; negative values count as 0
+	 */
+	public void record(long value)
+	{
+		if( value < 0 )
+		{
+			value = 0;
+		}
+		m_counts[indexOf(value)]++;
+		m_count++;
+		m_total += value;
+		if( value < m_min )
+		{
+			m_min = value;
+		}
+		if( value > m_max )
+		{
+			m_max = value;
+		}
+	}
+
+	/**
+	 * Add every value recorded by another histogram
+	 *
+	 * @param other histogram to add
+	 */
+	public void add(LatencyHistogram other)
+	{
+		for(int i = 0; i < m_counts.length; i++)
+		{
+			m_counts[i] += other.m_counts[i];
+		}
+		m_count += other.m_count;
+		m_total += other.m_total;
+		m_min = Math.min(m_min, other.m_min);
+		m_max = Math.max(m_max, other.m_max);
+	}
+
+	/**
+	 * Forget every recorded value
+	 */
+	public void reset()
+	{
+		Arrays.fill(m_counts, 0);
+		m_count = 0;
+		m_total = 0;
+		m_min = Long.MAX_VALUE;
+		m_max = 0;
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount()
+	{
+		return m_count;
+	}
+
+	/**
+	 * @return smallest recorded value, 0 if none
+	 */
+	public long getMin()
+	{
+		return m_count == 0 ? 0 : m_min;
+	}
+
+	/**
+	 * @return largest recorded value, 0 if none
+	 */
+	public long getMax()
+	{
+		return m_max;
+	}
+
+	/**
+	 * @return mean of the recorded values, 0 if none
+	 */
+	public double getMean()
+	{
+		return m_count == 0 ? 0.0 : (double) m_total / m_count;
+	}
+
+	/**
+	 * @param percentile 0 to 100, e.g. 99.9
+	 * @return the value at or below which that percentage of the values fall,
+	 * 		as the highest value of its bucket; 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		if( m_count == 0 )
+		{
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * m_count));
+		long seen = 0;
+		for(int i = 0; i < m_counts.length; i++)
+		{
+			seen += m_counts[i];
+			if( seen >= target )
+			{
+				return Math.min(highestValueOf(i), m_max);
+			}
+		}
+		return m_max;
+	}
+
+	private static int indexOf(long value)
+	{
+		if( value < SUB_BUCKETS )
+		{
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift) - HALF_SUB_BUCKETS;
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket;
+	}
+
+	private static long highestValueOf(int index)
+	{
+		if( index < SUB_BUCKETS )
+		{
+			return index;
+		}
+		int bucket = index - SUB_BUCKETS;
+		int shift = bucket / HALF_SUB_BUCKETS + 1;
+		long lowest = (long) (bucket % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("count=%d p50=%d p99=%d p999=%d max=%d", m_count, getValueAtPercentile(50),
+				getValueAtPercentile(99), getValueAtPercentile(99.9), m_max);
+	}
+
+	private final long[] m_counts;
+	private long m_count;
+	private long m_total;
+	private long m_min;
+	private long m_max;
+}
@@ -0,0 +1,92 @@
+package week04.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests the LatencyHistogram class against exact percentiles of a sorted sample
+ *
+ */
+public class LatencyHistogramTestCase extends AbstractTestCase
+{
+	private static final int SAMPLES = 100000;
+
+	public LatencyHistogramTestCase()
+	{
+		super("LatencyHistogramTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testPercentiles();
+			boolean test2 = testAdd();
+
+			result = test1 && test2;
+		}
+		catch(Exception ex)
+		{
+			trace("TestLatencyHistogram: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testPercentiles()
+	{
+		trace("Testing percentiles of " + SAMPLES + " log-normal latencies");
+		boolean result = true;
+
+		Random random = new Random(42);
+		long[] values = new long[SAMPLES];
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 0; i < SAMPLES; i++)
+		{
+			values[i] = (long) Math.exp(12 + 1.5 * random.nextGaussian());
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+
+		for(double percentile : new double[] { 50, 90, 99, 99.9, 100 })
+		{
+			long exact = values[(int) Math.ceil(percentile / 100 * SAMPLES) - 1];
+			long reported = histogram.getValueAtPercentile(percentile);
+			if( Math.abs(reported - exact) > exact / 100 )
+			{
+				trace(String.format(" *** p%s reported %d, exact %d", percentile, reported, exact));
+				result = false;
+			}
+		}
+		if( histogram.getCount() != SAMPLES || histogram.getMax() != values[SAMPLES - 1]
+				|| histogram.getMin() != values[0] )
+		{
+			trace(" *** Wrong count, min or max: " + histogram);
+			result = false;
+		}
+		return result;
+	}
+
+	private boolean testAdd()
+	{
+		trace("Testing adding histograms together");
+		LatencyHistogram a = new LatencyHistogram();
+		LatencyHistogram b = new LatencyHistogram();
+		for(int i = 1; i <= 100; i++)
+		{
+			(i % 2 == 0 ? a : b).record(i);
+		}
+		a.add(b);
+
+		if( a.getCount() != 100 || a.getValueAtPercentile(50) != 50 || a.getValueAtPercentile(99) != 99
+				|| a.getMean() != 50.5 )
+		{
+			trace(" *** Combined histogram " + a);
+			return false;
+		}
+		return true;
+	}
+}
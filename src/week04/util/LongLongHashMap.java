@@ -0,0 +1,209 @@
+package week04.util;
+
+/**
+ * Hash map from a primitive long to a primitive long, using open addressing
+ * over parallel key and value arrays. No boxing and no per-entry objects.
+ *
+ * Not thread safe. Does not support removal; it is meant for indexes that are
+ * built once and then read, and for accumulating totals.
+ */
+public class LongLongHashMap
+{
+	/**
+	 * Default constructor
+	 */
+	public LongLongHashMap()
+	{
+		this(16);
+	}
+
+	/**
+	 * Parameterized constructor
+	 *
+	 * @param expectedSize number of keys to size the table for
+	 */
+	public LongLongHashMap(int expectedSize)
+	{
+		int capacity = 16;
+		while( capacity < expectedSize * 2L && capacity < (1 << 30) )
+		{
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * @param key key to find
+	 * @param missing value returned if the key is not mapped
+	 * @return the mapped value or missing
+	 */
+	public long get(long key, long missing)
+	{
+		int slot = find(key);
+		return slot >= 0 ? m_values[slot] : missing;
+	}
+
+	/**
+	 * @param key key to find
+	 * @return true if the key is mapped
+	 */
+	public boolean containsKey(long key)
+	{
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Map a key to a value, replacing any previous value
+	 *
+	 * @param key key
+	 * @param value value
+	 */
+	public void put(long key, long value)
+	{
+		// insert may replace m_values, so look it up afterwards
+		int slot = insert(key);
+		m_values[slot] = value;
+	}
+
+	/**
+	 * Add to the value of a key, starting from 0 if it is not mapped
+	 *
+	 * @param key key
+	 * @param delta amount to add
+	 * @return the new value
+	 */
+	public long addTo(long key, long delta)
+	{
+		int slot = insert(key);
+		m_values[slot] += delta;
+		return m_values[slot];
+	}
+
+	/**
+	 * @return number of keys
+	 */
+	public int size()
+	{
+		return m_size;
+	}
+
+	/**
+	 * @return the keys, in the same order as values()
+	 */
+	public long[] keys()
+	{
+		long[] keys = new long[m_size];
+		int n = 0;
+		for(int i = 0; i < m_keys.length; i++)
+		{
+			if( m_used[i] )
+			{
+				keys[n++] = m_keys[i];
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * @return the values, in the same order as keys()
+	 */
+	public long[] values()
+	{
+		long[] values = new long[m_size];
+		int n = 0;
+		for(int i = 0; i < m_keys.length; i++)
+		{
+			if( m_used[i] )
+			{
+				values[n++] = m_values[i];
+			}
+		}
+		return values;
+	}
+
+	private int find(long key)
+	{
+		int mask = m_keys.length - 1;
+		for(int i = mix(key) & mask; m_used[i]; i = (i + 1) & mask)
+		{
+			if( m_keys[i] == key )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int insert(long key)
+	{
+		int mask = m_keys.length - 1;
+		int i = mix(key) & mask;
+		while( m_used[i] )
+		{
+			if( m_keys[i] == key )
+			{
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if( m_size + 1 > m_keys.length / 4 * 3 )
+		{
+			grow();
+			return insert(key);
+		}
+
+		m_used[i] = true;
+		m_keys[i] = key;
+		m_size++;
+		return i;
+	}
+
+	private void grow()
+	{
+		long[] keys = m_keys;
+		long[] values = m_values;
+		boolean[] used = m_used;
+
+		allocate(keys.length * 2);
+		int mask = m_keys.length - 1;
+		for(int j = 0; j < keys.length; j++)
+		{
+			if( used[j] )
+			{
+				int i = mix(keys[j]) & mask;
+				while( m_used[i] )
+				{
+					i = (i + 1) & mask;
+				}
+				m_used[i] = true;
+				m_keys[i] = keys[j];
+				m_values[i] = values[j];
+			}
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		m_keys = new long[capacity];
+		m_values = new long[capacity];
+		m_used = new boolean[capacity];
+	}
+
+	private static int mix(long key)
+	{
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LongLongHashMap size=" + m_size;
+	}
+
+	private long[] m_keys;
+	private long[] m_values;
+	private boolean[] m_used;
+	private int m_size;
+}
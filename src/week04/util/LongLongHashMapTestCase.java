@@ -0,0 +1,82 @@
+package week04.util;
+
+import test.AbstractTestCase;
+
+/**
+ * Tests the LongLongHashMap class, in particular the put that makes it grow
+ *
+ */
+public class LongLongHashMapTestCase extends AbstractTestCase
+{
+	private static final int KEYS = 100000;
+
+	public LongLongHashMapTestCase()
+	{
+		super("LongLongHashMapTestCase");
+	}
+
+	@Override
+	protected boolean runTest()
+	{
+		boolean result = false;
+		try
+		{
+			boolean test1 = testPutAcrossResizes();
+			boolean test2 = testAddToAcrossResizes();
+
+			result = test1 && test2;
+		}
+		catch(Exception ex)
+		{
+			trace("TestLongLongHashMap: Unexpected error in runTest: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	private boolean testPutAcrossResizes()
+	{
+		trace("Testing put of " + KEYS + " keys into a map sized for 1");
+		LongLongHashMap map = new LongLongHashMap(1);
+
+		for(long key = 1; key <= KEYS; key++)
+		{
+			map.put(key, key * 10);
+			// the value of the put that triggered a resize used to be lost
+			if( map.get(key, -1) != key * 10 )
+			{
+				trace(" *** Value of key " + key + " lost, map holds " + map.get(key, -1));
+				return false;
+			}
+		}
+		for(long key = 1; key <= KEYS; key++)
+		{
+			if( map.get(key, -1) != key * 10 )
+			{
+				trace(" *** Value of key " + key + " changed to " + map.get(key, -1));
+				return false;
+			}
+		}
+		if( map.size() != KEYS )
+		{
+			trace(" *** Wrong size: " + map.size());
+			return false;
+		}
+		return true;
+	}
+
+	private boolean testAddToAcrossResizes()
+	{
+		trace("Testing addTo while the map grows");
+		LongLongHashMap map = new LongLongHashMap(1);
+
+		for(long key = 1; key <= KEYS; key++)
+		{
+			if( map.addTo(key, key) != key || map.addTo(key, 1) != key + 1 )
+			{
+				trace(" *** Wrong total for key " + key + ": " + map.get(key, -1));
+				return false;
+			}
+		}
+		return map.size() == KEYS;
+	}
+}